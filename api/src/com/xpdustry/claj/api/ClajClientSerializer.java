@@ -30,6 +30,7 @@ import arc.util.io.ByteBufferOutput;
 
 import com.xpdustry.claj.common.ClajNet;
 import com.xpdustry.claj.common.net.FrameworkSerializer;
+import com.xpdustry.claj.common.packets.ConnectionPacketWrapPacket;
 import com.xpdustry.claj.common.packets.Packet;
 import com.xpdustry.claj.common.packets.RawPacket;
 
@@ -45,6 +46,7 @@ public class ClajClientSerializer implements NetSerializer, FrameworkSerializer
       case ClajNet.frameworkId -> readFramework(buffer);
       case ClajNet.oldId -> throw new ArcNetException("Received a packet from the old CLaJ protocol");
       case ClajNet.id -> readClaj(buffer);
+      case ClajNet.wrapId -> readCompact(buffer);
       default -> {
         buffer.position(buffer.position()-1);
         throw new ArcNetException("Unknown protocol type: " + buffer.get());
@@ -61,6 +63,15 @@ public class ClajClientSerializer implements NetSerializer, FrameworkSerializer
     return packet;
   }
 
+  public ConnectionPacketWrapPacket readCompact(ByteBuffer buffer) {
+    ConnectionPacketWrapPacket packet = new ConnectionPacketWrapPacket();
+    packet.compact = true;
+    ByteBufferInput in = read.get();
+    in.buffer = buffer;
+    packet.read(in);
+    return packet;
+  }
+
   @Override
   public void write(ByteBuffer buffer, Object object) {
     switch (object) {
@@ -72,7 +83,8 @@ public class ClajClientSerializer implements NetSerializer, FrameworkSerializer
   }
 
   public void writeClaj(ByteBuffer buffer, Packet packet) {
-    if (!(packet instanceof RawPacket)) buffer.put(ClajNet.id).put(ClajNet.getId(packet));
+    if (packet instanceof ConnectionPacketWrapPacket wrap && wrap.compact) buffer.put(ClajNet.wrapId);
+    else if (!(packet instanceof RawPacket)) buffer.put(ClajNet.id).put(ClajNet.getId(packet));
     ByteBufferOutput out = write.get();
     out.buffer = buffer;
     packet.write(out);
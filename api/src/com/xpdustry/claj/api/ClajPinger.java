@@ -29,10 +29,12 @@ import arc.net.ArcNetException;
 import arc.net.Client;
 import arc.net.DcReason;
 import arc.net.FrameworkMessage;
+import arc.net.NetSerializer;
 import arc.struct.LongMap;
 import arc.struct.ObjectSet;
 import arc.struct.Seq;
 import arc.util.Reflect;
+import arc.util.Threads;
 import arc.util.io.ByteBufferInput;
 
 import com.xpdustry.claj.common.ClajNet;
@@ -49,6 +51,8 @@ import com.xpdustry.claj.common.status.*;
  */
 public class ClajPinger extends Client {
   public static final short NO_PASSWORD = -1;
+  /** Maximum number of redirections followed by a join or info request. */
+  public static int maxRedirects = 3;
   /** In ms. */
   public static int connectTimeout = 5 * 1000,
                     pingTimeout = connectTimeout,
@@ -85,6 +89,11 @@ public class ClajPinger extends Client {
   protected Cons<Exception> infoFailed;
   protected volatile boolean infoing;
 
+  /** Number of redirections followed by the current request. */
+  protected int redirects;
+  /** Whether the connection joined a room and was given to the provider. The pinger cannot be used anymore. */
+  protected volatile boolean handedOff;
+
   public ClajPinger(ClajProvider provider) {
     super(8192, 8192, new Serializer());
     ((Serializer)getSerialization()).set(this);
@@ -99,7 +108,7 @@ public class ClajPinger extends Client {
 
     receiver.handle(RoomJoinAcceptedPacket.class, p -> {
       if (p.roomId != ClajProxy.UNCREATED_ROOM && p.roomId == requestedRoom)
-        runJoinSuccess();
+        runJoinSuccess(p.handoff);
     });
     receiver.handle(RoomJoinDeniedPacket.class, p -> {
       if (p.roomId != ClajProxy.UNCREATED_ROOM && p.roomId == requestedRoom)
@@ -113,6 +122,7 @@ public class ClajPinger extends Client {
     });
     receiver.handle(RoomInfoDeniedPacket.class, this::runInfoNotFound);
 
+    receiver.handle(ServerRedirectPacket.class, p -> runRedirect(p.host, p.port));
     receiver.handle(ServerInfoPacket.class, p -> runPingSuccess(p.version));
   }
 
@@ -302,9 +312,20 @@ public class ClajPinger extends Client {
     lastRequest = null;
     setRequestTimeout(0);
     joining = false;
-  }
-
-  protected void runJoinSuccess() {
+    redirects = 0;
+  }
+
+  protected void runJoinSuccess() { runJoinSuccess(false); }
+  /** @param handoff whether the server added the connection to the room. */
+  protected void runJoinSuccess(boolean handoff) {
+    // The connection is now in the room, so it's kept instead of giving a join packet
+    if (handoff && lastRequest != null && (lastRequest.flags & RoomJoinRequestPacket.FLAG_HANDOFF) != 0) {
+      handedOff = true;
+      // Still given, in case the provider fails to adopt the connection
+      if (joinSuccess != null) postTask(joinSuccess, makeJoinPacket(lastRequest));
+      resetJoinState(null, null, null);
+      return;
+    }
     if (joinSuccess != null) postTask(joinSuccess, makeJoinPacket(lastRequest));
     resetJoinState(null, null, null);
     close();
@@ -330,6 +351,7 @@ public class ClajPinger extends Client {
     requestedRoom = ClajProxy.UNCREATED_ROOM;
     setRequestTimeout(0);
     infoing = false;
+    redirects = 0;
   }
 
   protected void runInfoSuccess(long roomId, boolean isProtected, ClajType type, int clients, int maxClients,
@@ -352,6 +374,44 @@ public class ClajPinger extends Client {
     close();
   }
 
+  /**
+   * Follows a redirection of the server to the node owning the requested room. <br>
+   * The request is made again on the new node, after closing the current connection.
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  protected synchronized void runRedirect(String host, int port) {
+    if (!joining && !infoing) return;
+    if (host == null || host.isEmpty() || redirects >= maxRedirects) {
+      if (joining) runJoinDenied(RejectReason.roomNotFound);
+      else runInfoNotFound();
+      return;
+    }
+
+    int count = redirects + 1;
+    long roomId = requestedRoom;
+    Runnable request;
+    if (joining) {
+      Cons<ByteBuffer> success = joinSuccess;
+      Cons<RejectReason> reject = joinDenied;
+      Cons<Exception> failed = joinFailed;
+      boolean withPassword = lastRequest != null && lastRequest.withPassword;
+      short password = lastRequest != null ? lastRequest.password : NO_PASSWORD;
+      resetJoinState(null, null, null);
+      request = () -> joinRoom(host, port, roomId, withPassword, password, success, reject, failed, count);
+    } else {
+      Cons<ClajRoom<Object>> success = (Cons)infoSuccess;
+      Runnable notFound = infoNotFound;
+      Cons<Exception> failed = infoFailed;
+      resetInfoState(null, null, null);
+      request = () -> requestRoomInfo(host, port, roomId, success, notFound, failed, count);
+    }
+    close();
+
+    // Cannot connect from the update thread
+    if (provider.getExecutor() != null) provider.getExecutor().submit(request);
+    else Threads.daemon("CLaJ Pinger Redirect", request);
+  }
+
   /**
    * Connect using {@link #connectTimeout} and same {@code port} for TCP and UDP. <br>
    * This also ensures that the client is running before connection, and can be canceled.
@@ -410,6 +470,12 @@ public class ClajPinger extends Client {
 
   protected void joinRoom(String host, int port, long roomId, boolean withPassword, short password,
                           Cons<ByteBuffer> success, Cons<RejectReason> reject, Cons<Exception> failed) {
+    joinRoom(host, port, roomId, withPassword, password, success, reject, failed, 0);
+  }
+
+  protected void joinRoom(String host, int port, long roomId, boolean withPassword, short password,
+                          Cons<ByteBuffer> success, Cons<RejectReason> reject, Cons<Exception> failed,
+                          int redirects) {
     if (!canceling) {
       try { connect(host, port); }
       catch (Exception e) {
@@ -419,6 +485,7 @@ public class ClajPinger extends Client {
       }
     } else close();
     resetJoinState(success, reject, failed);
+    this.redirects = redirects;
     requestedRoom = roomId;
     setRequestTimeout(joinTimeout);
     joining = true;
@@ -428,6 +495,11 @@ public class ClajPinger extends Client {
 
   public <T> void requestRoomInfo(String host, int port, long roomId, Cons<ClajRoom<T>> info, Runnable notFound,
                                   Cons<Exception> failed) {
+    requestRoomInfo(host, port, roomId, info, notFound, failed, 0);
+  }
+
+  protected <T> void requestRoomInfo(String host, int port, long roomId, Cons<ClajRoom<T>> info,
+                                     Runnable notFound, Cons<Exception> failed, int redirects) {
     if (!canceling) {
       try { connect(host, port); }
       catch (Exception e) {
@@ -437,6 +509,7 @@ public class ClajPinger extends Client {
       }
     } else close();
     resetInfoState(info, notFound, failed);
+    this.redirects = redirects;
     requestedRoom = roomId;
     setRequestTimeout(infoTimeout);
     infoing = true;
@@ -451,6 +524,7 @@ public class ClajPinger extends Client {
   protected void requestRoomInfo(long roomId) {
     RoomInfoRequestPacket p = new RoomInfoRequestPacket();
     p.roomId = roomId;
+    p.flags = RoomInfoRequestPacket.FLAG_REDIRECT;
     sendTCP(p);
   }
 
@@ -466,10 +540,28 @@ public class ClajPinger extends Client {
     p.withPassword = withPassword && password != NO_PASSWORD;
     p.password = password;
     p.type = provider.getType();
+    p.flags = RoomJoinRequestPacket.FLAG_REDIRECT;
+    if (provider.supportsHandoff()) p.flags |= RoomJoinRequestPacket.FLAG_HANDOFF;
     lastRequest = p;
     sendTCP(p);
   }
 
+  /** @return whether the connection joined a room and was given to the provider. */
+  public boolean isHandedOff() {
+    return handedOff;
+  }
+
+  /**
+   * Turns the connection of a {@link #isHandedOff() handed off} pinger into a client connection. <br>
+   * CLaJ packets are no longer handled, and data is read and written by the specified serializer.
+   * Listeners of the client must be added by the caller.
+   */
+  public void handoff(NetSerializer serializer) {
+    if (!handedOff) throw new IllegalStateException("the pinger has not joined a room in handoff mode");
+    removeListener(receiver);
+    ((Serializer)getSerialization()).delegate = serializer;
+  }
+
   protected ByteBuffer makeJoinPacket(RoomJoinRequestPacket request) {
     if (request == null) return null;
     ByteBuffer buff = ByteBuffer.allocate(RoomJoinRequestPacket.SIZE);
@@ -478,13 +570,26 @@ public class ClajPinger extends Client {
   }
 
 
-  /** Modified serializer that reads only one packet type in {@linkplain ClajPinger#pinging pinging} mode. */
+  /**
+   * Modified serializer that reads only one packet type in {@linkplain ClajPinger#pinging pinging} mode. <br>
+   * Delegates to the client serializer once {@linkplain ClajPinger#handoff(NetSerializer) handed off}.
+   */
   protected static class Serializer extends ClajClientSerializer {
     protected ClajPinger pinger;
+    protected volatile NetSerializer delegate;
     public void set(ClajPinger pinger) { this.pinger = pinger; }
 
+    @Override
+    public void write(ByteBuffer buffer, Object object) {
+      NetSerializer delegate = this.delegate;
+      if (delegate != null) delegate.write(buffer, object);
+      else super.write(buffer, object);
+    }
+
     @Override
     public Object read(ByteBuffer buffer) {
+      NetSerializer delegate = this.delegate;
+      if (delegate != null) return delegate.read(buffer);
       if (pinger.pinging) {
         if (!buffer.hasRemaining() || buffer.get() == ClajNet.id) {
           ByteBufferInput readi = read.get();
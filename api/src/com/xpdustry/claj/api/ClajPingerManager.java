@@ -204,7 +204,9 @@ public class ClajPingerManager {
     if (link == null) return;
     submit((pinger, finished) -> {
       pinger.joinRoom(link.host, link.port, link.roomId, join -> {
-        provider.connectClient(link.host, link.port, success, join);
+        // The pinger may have been redirected to another node
+        if (!pinger.isHandedOff() || !adopt(pinger, success))
+          provider.connectClient(pinger.connectHost, pinger.connectPort, success, join);
         finished.run();
       }, reason -> {
         if (reject != null) reject.get(reason);
@@ -221,7 +223,9 @@ public class ClajPingerManager {
     if (link == null) return;
     submit((pinger, finished) -> {
       pinger.joinRoom(link.host, link.port, link.roomId, password, join -> {
-        provider.connectClient(link.host, link.port, success, join);
+        // The pinger may have been redirected to another node
+        if (!pinger.isHandedOff() || !adopt(pinger, success))
+          provider.connectClient(pinger.connectHost, pinger.connectPort, success, join);
         finished.run();
       }, reason -> {
         if (reject != null) reject.get(reason);
@@ -233,6 +237,23 @@ public class ClajPingerManager {
     });
   }
 
+  /**
+   * Gives the pinger connection, that joined a room, to the provider. <br>
+   * The pinger is removed from the pool, and a new one will be created when needed.
+   * @return whether the provider adopted the connection, else the pinger was stopped.
+   */
+  protected boolean adopt(ClajPinger pinger, Runnable success) {
+    for (int i=0; i<workers; i++) {
+      if (pingers[i] != pinger) continue;
+      pingers[i] = null;
+      threads[i] = null; // keeps running the connection
+    }
+    if (provider.adoptClient(pinger, success)) return true;
+    // The provider cannot use the connection, so leave the room and join it normally
+    pinger.stop();
+    return false;
+  }
+
   /** This queues new tasks if a ping is already in progress. */
   public void pingHost(String ip, int port, Cons<ServerState> success, Cons<Exception> failed) {
     submit((pinger, finished) -> {
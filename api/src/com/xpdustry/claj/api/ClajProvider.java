@@ -90,6 +90,24 @@ public interface ClajProvider {
    */
   void connectClient(String host, int port, Runnable success, ByteBuffer joinPacket);
 
+  /**
+   * Whether join requests can ask the server to add the pinger connection to the room,
+   * so it can be {@link #adoptClient(ClajPinger, Runnable) used as the client connection}.
+   * This saves a connection, but the provider must be able to use an existing connection.
+   */
+  default boolean supportsHandoff() { return false; }
+
+  /**
+   * Uses the connection of a pinger that joined a room, instead of {@link #connectClient connecting} again. <br>
+   * The pinger is no longer managed, and must be {@link ClajPinger#handoff(arc.net.NetSerializer) handed off}
+   * with the client serializer. Its thread keeps updating the connection.
+   * Only called if {@link #supportsHandoff()} returns {@code true}.
+   * @param success can be {@code null} and must be called when the connection is ready.
+   * @return whether the connection was adopted. Else the pinger is closed and the client is
+   *         {@link #connectClient connected} again.
+   */
+  default boolean adoptClient(ClajPinger pinger, Runnable success) { return false; }
+
   /**
    * <b>Essential for the protocol to work!</b>
    * <p>
@@ -98,6 +116,13 @@ public interface ClajProvider {
    */
   Serializer getPacketWrapperSerializer();
 
+  /**
+   * Called when the room is moving to another relay, before leaving the current one. <br>
+   * The room keeps its id, so the new link can be sent to the clients for them to reconnect,
+   * as they will be disconnected by the current relay.
+   */
+  default void roomMigrating(ClajProxy proxy, ClajLink link) {}
+
   // Client specific handling
   default void showTextMessage(ClajProxy proxy, String text) {}
   default void showMessage(ClajProxy proxy, MessageType message) {}
@@ -19,35 +19,75 @@
 
 package com.xpdustry.claj.api;
 
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 
 import arc.func.Cons;
 import arc.net.DcReason;
+import arc.struct.LongMap;
+import arc.util.Threads;
 
 import com.xpdustry.claj.api.net.ProxyClient;
 import com.xpdustry.claj.api.net.VirtualConnection;
 import com.xpdustry.claj.common.ClajPackets.Connect;
 import com.xpdustry.claj.common.ClajPackets.Disconnect;
 import com.xpdustry.claj.common.packets.*;
+import com.xpdustry.claj.common.status.ClajFeature;
 import com.xpdustry.claj.common.status.ClajType;
 import com.xpdustry.claj.common.status.CloseReason;
+import com.xpdustry.claj.common.util.Compression;
 
 
 /** The claj client that redirects packets from the relay to the local mindustry server. */
 public class ClajProxy extends ProxyClient {
   /** Constant value saying that no room is created. This should be handled as an invalid id. */
   public static final long UNCREATED_ROOM = 0;
+  /** Maximum number of redirections followed for one room creation. */
+  public static int maxRedirects = 3;
+  /** Time given to re-attach to the room after losing the connection, when enabled by the server. (in ms) */
+  public static int resumeTimeout = 30 * 1000;
+  /** Delay between two attempts to re-attach. (in ms) */
+  public static int resumeInterval = 2 * 1000;
 
   public final ClajProvider provider;
   public boolean isPublic, isProtected, allowStateRequests;
   public short roomPassword;
   /** Can be used to not call {@link #roomClosed} callback, if the error is already handled. */
   public boolean quietErrors;
+  /**
+   * Compression of wrapped packets, if the server supports it. {@link Compression.Level#none} to disable. <br>
+   * {@link Compression.Level#fast} is a good tradeoff for a host with a limited upload.
+   */
+  public volatile Compression.Level compression = Compression.Level.none;
+  /** Minimum size of a wrapped packet to be compressed. (in bytes) */
+  public volatile int compressThreshold = 512;
 
   protected Cons<ClajLink> roomCreated;
   protected Cons<CloseReason> roomClosed;
+  protected Cons<Throwable> connectFailed;
+  /** Number of redirections followed for the current room creation. */
+  protected int redirects;
+  /** Room to re-create on the next relay when migrating, or to re-attach to when resuming. */
+  protected long pendingRoom = UNCREATED_ROOM, pendingToken;
+  /** Token to re-attach to the room, {@code 0} if not enabled. */
+  protected volatile long resumeToken;
+  /** Whether the connection was lost and the proxy is trying to re-attach to the room. */
+  protected volatile boolean resuming, reconnecting;
+  protected volatile long resumeDeadline;
   protected long roomId = UNCREATED_ROOM;
   protected ClajLink link;
+  /** {@link ClajFeature Features} enabled by the server for the room. */
+  protected volatile int features;
+  /** Pending batch of reliable wrapped packets. Guarded by itself. */
+  protected final ByteBuffer batch = ByteBuffer.allocate(ConnectionPacketBatchPacket.MAX_SIZE);
+  protected boolean batchPosted;
+  protected volatile boolean hasBatch; // used for fast check
+  protected final Runnable batchFlusher = () -> {
+    synchronized (batch) { batchPosted = false; }
+    flushBatch();
+  };
+  /** Blobs offered and not yet answered by the server, by hash. Guarded by itself. */
+  protected final LongMap<OfferedBlob> offeredBlobs = new LongMap<>();
 
   public ClajProxy(ClajProvider provider) {
     super(32768, 16384, new ClajClientSerializer(), provider::postTask);
@@ -56,15 +96,29 @@ public class ClajProxy extends ProxyClient {
     errorHandler = e -> provider.handleProxyError(this, e);
 
     receiver.handle(Connect.class, this::requestRoomId);
-    receiver.handle(Disconnect.class, _ -> runRoomClose(CloseReason.error));
+    receiver.handle(Disconnect.class, _ -> {
+      if (!resume()) runRoomClose(CloseReason.error);
+    });
 
-    receiver.handle(ConnectionJoinPacket.class, p -> conConnected(p.conID, p.addressHash));
+    receiver.handle(ConnectionJoinPacket.class, p -> conConnected(p.conID, p.addressHash, p.slot));
     receiver.handle(ConnectionClosedPacket.class, p -> conDisconnected(p.conID, p.reason));
-    receiver.handle(ConnectionPacketWrapPacket.class, p -> conReceived(p.conID, p.object));
+    receiver.handle(ConnectionPacketWrapPacket.class, p -> {
+      if (p.compact) conReceivedBySlot(p.slot, p.object);
+      else conReceived(p.conID, p.object);
+    });
+    receiver.handle(ConnectionPacketBatchPacket.class, p -> {
+      for (int i=0; i<p.packets.size; i++) conReceived(p.packets.items[i].conID, p.packets.items[i].object);
+    });
     receiver.handle(ConnectionIdlingPacket.class, p -> conIdle(p.conID));
+    receiver.handle(ConnectionIdleSetPacket.class, p -> conIdle(p.conIDs));
+    receiver.handle(ConnectionLatencyPacket.class, p -> conLatency(p.conIDs, p.rtts));
+    receiver.handle(BlobStatePacket.class, p -> blobAnswered(p.hash, p.cached));
+    receiver.handle(ConnectionCongestionPacket.class, p -> conCongested(p.conID, p.congested));
 
     receiver.handle(RoomClosedPacket.class, p -> runRoomClose(p.reason));
-    receiver.handle(RoomLinkPacket.class, p -> runRoomCreated(p.roomId));
+    receiver.handle(RoomLinkPacket.class, p -> runRoomCreated(p.roomId, p.features, p.resumeToken));
+    receiver.handle(ServerRedirectPacket.class, p -> followRedirect(p.host, p.port));
+    receiver.handle(RoomMigratePacket.class, p -> migrate(p.host, p.port, p.token));
     receiver.handle(RoomStateRequestPacket.class, this::notifyRoomState);
 
     receiver.handle(ClajTextMessagePacket.class, p -> provider.showTextMessage(this, p.message));
@@ -72,13 +126,25 @@ public class ClajProxy extends ProxyClient {
     receiver.handle(ClajPopupPacket.class, p -> provider.showPopup(this, p.message));
   }
 
-  /** This method must be used instead of others connect methods */
+  /**
+   * This method must be used instead of others connect methods. <br>
+   * If the server is full, it can redirect to another relay, which is followed transparently.
+   */
   public void connect(String host, int port, Cons<ClajLink> created, Cons<CloseReason> closed, Cons<Throwable> failed) {
+    connect(host, port, created, closed, failed, 0);
+  }
+
+  protected void connect(String host, int port, Cons<ClajLink> created, Cons<CloseReason> closed,
+                         Cons<Throwable> failed, int redirects) {
     try {
       connect(host, port);
       roomCreated = created;
       roomClosed = closed;
+      connectFailed = failed;
+      this.redirects = redirects;
     } catch (Exception e) {
+      pendingRoom = UNCREATED_ROOM;
+      pendingToken = 0;
       runRoomClose(CloseReason.error);
       failed.get(e);
     } finally {
@@ -86,12 +152,35 @@ public class ClajProxy extends ProxyClient {
     }
   }
 
+  /**
+   * Re-creates a room saved by the server when it was stopped, using the {@link #resumeToken() resume token}
+   * of the previous room. Must be done before the reclaim window of the server expires. <br>
+   * A new room id is given if the room cannot be reclaimed.
+   */
+  public void reclaim(String host, int port, long roomId, long token, Cons<ClajLink> created,
+                      Cons<CloseReason> closed, Cons<Throwable> failed) {
+    if (roomCreated()) return;
+    pendingRoom = roomId;
+    pendingToken = token;
+    connect(host, port, created, closed, failed, 0);
+  }
+
   // Helpers
   protected <T> void postTask(Cons<T> consumer, T object) { postTask(() -> consumer.get(object)); }
   protected void postTask(Runnable run) { provider.postTask(run); }
 
-  protected void runRoomCreated(long roomId) {
+  protected void runRoomCreated(long roomId) { runRoomCreated(roomId, 0, 0); }
+  protected void runRoomCreated(long roomId, int features, long resumeToken) {
+    if (resuming) {
+      runRoomResumed(roomId, features, resumeToken);
+      return;
+    }
     if (roomCreated()) return;
+    pendingRoom = UNCREATED_ROOM;
+    pendingToken = 0;
+    this.features = features;
+    this.resumeToken = resumeToken;
+    keepConnections = ClajFeature.resume.in(features) && resumeToken != 0;
     this.roomId = roomId;
     link = new ClajLink(connectHost.getHostName(), connectTcpPort, roomId);
     // 0 is not allowed since it's used to specify an uncreated room
@@ -101,14 +190,134 @@ public class ClajProxy extends ProxyClient {
     if (isPublic) notifyRoomState();
   }
 
+  /**
+   * Reconnects to the relay given by the server, with the same callbacks. <br>
+   * The room is closed as {@link CloseReason#serverFull} after {@link #maxRedirects} redirections.
+   */
+  protected void followRedirect(String host, int port) {
+    if (roomCreated()) return;
+    if (redirects >= maxRedirects || host == null || host.isEmpty()) {
+      runRoomClose(CloseReason.serverFull);
+      return;
+    }
+    Cons<ClajLink> created = roomCreated;
+    Cons<CloseReason> closed = roomClosed;
+    Cons<Throwable> failed = connectFailed;
+    int redirects = this.redirects + 1;
+    // The disconnection must not notify the callbacks
+    roomCreated = null;
+    roomClosed = null;
+    close();
+    // Posted after the disconnection event, so it will not close the new connection
+    postTask(() -> {
+      Runnable task = () -> connect(host, port, created, closed, failed, redirects);
+      if (provider.getExecutor() == null) task.run();
+      else provider.getExecutor().submit(task);
+    });
+  }
+
+  /**
+   * Moves the room to another relay, because the current one is draining. <br>
+   * The provider is notified of the new link first, so it can send it to the room clients.
+   * Then the room is re-created on the target with the same id, and the callbacks are kept.
+   * The current room is closed by the server when leaving it.
+   */
+  protected void migrate(String host, int port, long token) {
+    if (!roomCreated() || host == null || host.isEmpty()) return;
+    long roomId = this.roomId;
+    provider.roomMigrating(this, new ClajLink(host, port, roomId));
+
+    Cons<ClajLink> created = roomCreated;
+    Cons<CloseReason> closed = roomClosed;
+    Cons<Throwable> failed = connectFailed;
+    // Leave without closing the room explicitly, and without notifying the callbacks
+    roomCreated = null;
+    roomClosed = null;
+    runRoomClose(null);
+    pendingRoom = roomId;
+    pendingToken = token;
+    postTask(() -> {
+      Runnable task = () -> connect(host, port, created, closed, failed, 0);
+      if (provider.getExecutor() == null) task.run();
+      else provider.getExecutor().submit(task);
+    });
+  }
+
+  /**
+   * Tries to re-attach to the room after losing the connection, for {@link #resumeTimeout}. <br>
+   * Virtual connections are kept meanwhile, and the room is closed if it fails.
+   * @return whether the proxy is re-attaching to the room.
+   */
+  protected boolean resume() {
+    if (!roomCreated() || resumeToken == 0 || !hasFeature(ClajFeature.resume)) return false;
+    if (!resuming) {
+      resumeDeadline = System.currentTimeMillis() + resumeTimeout;
+      pendingRoom = roomId;
+      pendingToken = resumeToken;
+      resuming = true;
+    }
+    Runnable task = this::reconnect;
+    if (provider.getExecutor() == null) Threads.daemon("CLaJ Proxy Resume", task);
+    else provider.getExecutor().submit(task);
+    return true;
+  }
+
+  /** Reconnects to the relay until connected, or until the {@link #resumeDeadline}. Blocking. */
+  protected void reconnect() {
+    synchronized (this) {
+      if (reconnecting) return;
+      reconnecting = true;
+    }
+    try {
+      while (resuming && System.currentTimeMillis() < resumeDeadline) {
+        try {
+          connect(connectTimeout, connectHost, connectTcpPort, connectUdpPort);
+          return; // the room is re-attached once the server sends the link
+        } catch (Exception e) {
+          Threads.sleep(resumeInterval);
+        }
+      }
+    } finally { reconnecting = false; }
+    postTask(() -> {
+      if (resuming) runRoomClose(CloseReason.error);
+    });
+  }
+
+  /** Called when the server answered to the re-attach request. */
+  protected void runRoomResumed(long roomId, int features, long resumeToken) {
+    resuming = false;
+    pendingRoom = UNCREATED_ROOM;
+    pendingToken = 0;
+    // The room was not kept by the server, so a new one was created instead
+    if (roomId != this.roomId) {
+      this.roomId = roomId;
+      closeRoom(CloseReason.error);
+      return;
+    }
+    this.features = features;
+    this.resumeToken = resumeToken;
+    notifyConfiguration();
+    if (isPublic) notifyRoomState();
+  }
+
   /** This also resets room id and removes callbacks. */
   protected void runRoomClose(CloseReason reason) {
+    resuming = false;
+    resumeToken = 0;
+    keepConnections = false;
     roomId = UNCREATED_ROOM;
+    features = 0;
+    synchronized (batch) {
+      batch.clear();
+      hasBatch = false;
+    }
+    synchronized (offeredBlobs) { offeredBlobs.clear(); }
     link = null;
     if (!(quietErrors && reason == CloseReason.error) && roomClosed != null)
       postTask(roomClosed, reason);
     roomCreated = null;
     roomClosed = null;
+    connectFailed = null;
     close();
     quietErrors = false;
   }
@@ -118,6 +327,11 @@ public class ClajProxy extends ProxyClient {
     return roomId;
   }
 
+  /** @return the token allowing to re-attach or reclaim the room, {@code 0} if not supported by the server. */
+  public long resumeToken() {
+    return resumeToken;
+  }
+
   public boolean roomCreated() {
     return roomId != UNCREATED_ROOM;
   }
@@ -126,8 +340,27 @@ public class ClajProxy extends ProxyClient {
     return link;
   }
 
+  /** @return whether the feature is enabled for the room. */
+  public boolean hasFeature(ClajFeature feature) {
+    return feature.in(features);
+  }
+
+  /** @return the {@link ClajFeature features} supported by this proxy, sent at room creation. */
+  public int supportedFeatures() {
+    return ClajFeature.of(ClajFeature.all);
+  }
+
   @Override
   public void close() {
+    // Closed before each attempt to re-attach, the room must be kept
+    if (reconnecting) {
+      super.close();
+      return;
+    }
+    if (resuming) {
+      runRoomClose(null);
+      return;
+    }
     if (isConnected()) closeRoom();
     super.close();
   }
@@ -144,7 +377,7 @@ public class ClajProxy extends ProxyClient {
   }
 
   public void requestRoomId() {
-    if (roomCreated()) return;
+    if (roomCreated() && !resuming) return;
     sendTCP(makeRoomCreatePacket(provider.getVersion().majorVersion, provider.getType()));
   }
 
@@ -201,6 +434,9 @@ public class ClajProxy extends ProxyClient {
     RoomCreationRequestPacket p = new RoomCreationRequestPacket();
     p.version = version;
     p.type = type;
+    p.features = supportedFeatures();
+    p.roomId = pendingRoom;
+    p.token = pendingToken;
     return p;
   }
 
@@ -213,7 +449,186 @@ public class ClajProxy extends ProxyClient {
     ConnectionPacketWrapPacket p = new ConnectionPacketWrapPacket();
     p.conID = conId;
     p.isTCP = tcp;
+    setObject(p, object);
+    if (hasFeature(ClajFeature.compactWrap)) {
+      VirtualConnection con = getConnection(conId);
+      p.slot = con == null ? -1 : con.getSlot();
+      p.compact = p.slot >= 0;
+    }
+    setCompression(p);
+    return p;
+  }
+
+  /** Sets the object of the packet, or its payload if it is a {@link #snapshot}. */
+  protected void setObject(ConnectionPacketWrapPacket p, Object object) {
+    if (object instanceof RawPacket raw) p.raw = raw;
+    else p.object = object;
+  }
+
+  protected void setCompression(ConnectionPacketWrapPacket p) {
+    if (!hasFeature(ClajFeature.compression)) return;
+    p.compression = compression;
+    p.compressThreshold = compressThreshold;
+  }
+
+  @Override
+  protected boolean canMulticast() {
+    return roomCreated() && hasFeature(ClajFeature.multicast);
+  }
+
+  /** Serializes the object now, so it can be compared and is no longer affected if the game reuses it. */
+  @Override
+  protected RawPacket snapshot(Object object) {
+    ConnectionPacketWrapPacket.Serializer serializer = ConnectionPacketWrapPacket.serializer;
+    if (serializer == null) return null;
+    ConnectionPacketWrapPacket p = new ConnectionPacketWrapPacket();
     p.object = object;
+    ByteBuffer buffer = Compression.source();
+    try { serializer.write(p, Compression.output(buffer)); }
+    catch (BufferOverflowException e) { return null; } // too big, sent as is
+    return new RawPacket((ByteBuffer)buffer.flip());
+  }
+
+  @Override
+  protected boolean sameSnapshot(Object a, Object b) {
+    return a instanceof RawPacket ra && b instanceof RawPacket rb ? ra.data.equals(rb.data) : a.equals(b);
+  }
+
+  @Override
+  protected Packet makeConMulticastPacket(int[] conIds, int count, boolean exclude, Object object, boolean tcp) {
+    ConnectionPacketMulticastPacket p = new ConnectionPacketMulticastPacket();
+    p.targets = conIds;
+    p.count = count;
+    p.exclude = exclude;
+    p.isTCP = tcp;
+    setObject(p, object);
+    setCompression(p);
+    return p;
+  }
+
+  /** Packets are batched until the next posted task, the next update or the next packet not batched. */
+  @Override
+  protected boolean batch(int conId, Object object) {
+    if (!roomCreated() || !hasFeature(ClajFeature.batch)) return false;
+    if (addBatch(conId, object)) return true;
+    // Batch full, or the packet is too big
+    flushBatch();
+    return addBatch(conId, object);
+  }
+
+  protected boolean addBatch(int conId, Object object) {
+    synchronized (batch) {
+      if (!ConnectionPacketBatchPacket.add(batch, conId, object)) return false;
+      hasBatch = true;
+      if (!batchPosted) {
+        batchPosted = true;
+        postTask(batchFlusher);
+      }
+      return true;
+    }
+  }
+
+  @Override
+  public void flushBatch() {
+    if (!hasBatch) return; // fast check
+    ConnectionPacketBatchPacket p;
+    synchronized (batch) {
+      if (batch.position() == 0) return;
+      batch.flip();
+      p = new ConnectionPacketBatchPacket();
+      // The packet may be queued, so it cannot use the batch buffer
+      p.entries = RawPacket.copyRemaining(batch);
+      batch.clear();
+      hasBatch = false;
+    }
+    sendSafeTCP(p);
+  }
+
+  /**
+   * Sends the packets to the connection as a blob, identified by its content hash. <br>
+   * If the same packets were already sent to another connection of the room, the server sends them again
+   * from its cache, without uploading them. Else they are uploaded once, and cached by the server. <br>
+   * Falls back to sending them one by one if the server doesn't support it.
+   * <p>
+   * The packets must be the same bytes for every connection, so it's only useful for shared data.
+   */
+  public void sendBlob(int conId, Object... objects) {
+    VirtualConnection con = getConnection(conId);
+    if (con == null) return;
+    ByteBuffer blob = roomCreated() && hasFeature(ClajFeature.blobCache) ? writeBlob(objects) : null;
+    if (blob == null) {
+      for (Object object : objects) con.sendTCP(object);
+      return;
+    }
+
+    long hash = BlobOfferPacket.hash(blob);
+    synchronized (offeredBlobs) {
+      OfferedBlob offered = offeredBlobs.get(hash);
+      if (offered == null) offeredBlobs.put(hash, offered = new OfferedBlob(blob));
+      offered.offers++;
+    }
+    // Previous packets must be sent before
+    flushMulticast();
+    flushBatch();
+    sendSafeTCP(makeBlobOfferPacket(conId, hash, blob.remaining()));
+  }
+
+  /** @return the packets as blob entries, or {@code null} if too big. */
+  protected ByteBuffer writeBlob(Object[] objects) {
+    ConnectionPacketWrapPacket wrap = new ConnectionPacketWrapPacket();
+    ByteBuffer blob = ByteBuffer.allocate(8192);
+    for (Object object : objects) {
+      wrap.object = object;
+      ByteBuffer entry = Compression.source();
+      try { ConnectionPacketWrapPacket.serializer.write(wrap, Compression.output(entry)); }
+      catch (BufferOverflowException e) { return null; }
+      entry.flip();
+
+      int needed = blob.position() + 2 + entry.remaining();
+      if (needed > BlobOfferPacket.MAX_SIZE) return null;
+      if (needed > blob.capacity()) {
+        ByteBuffer bigger = ByteBuffer.allocate(Math.min(BlobOfferPacket.MAX_SIZE, Math.max(needed, blob.capacity() * 2)));
+        blob.flip();
+        blob = bigger.put(blob);
+      }
+      blob.putChar((char)entry.remaining()).put(entry);
+    }
+    blob.flip();
+    return blob;
+  }
+
+  /** Uploads the blob if the server doesn't have it. */
+  protected void blobAnswered(long hash, boolean cached) {
+    ByteBuffer blob;
+    synchronized (offeredBlobs) {
+      OfferedBlob offered = offeredBlobs.get(hash);
+      if (offered == null) return;
+      if (--offered.offers <= 0) offeredBlobs.remove(hash);
+      if (cached) return;
+      blob = offered.data;
+    }
+
+    for (int pos=blob.position(); pos<blob.limit(); pos+=BlobDataPacket.MAX_SIZE) {
+      // Packets may be queued, so each one has its own view
+      ByteBuffer part = blob.duplicate();
+      part.position(pos);
+      part.limit(Math.min(blob.limit(), pos + BlobDataPacket.MAX_SIZE));
+      sendSafeTCP(makeBlobDataPacket(hash, part));
+    }
+  }
+
+  protected Packet makeBlobOfferPacket(int conId, long hash, int size) {
+    BlobOfferPacket p = new BlobOfferPacket();
+    p.conID = conId;
+    p.hash = hash;
+    p.size = size;
+    return p;
+  }
+
+  protected Packet makeBlobDataPacket(long hash, ByteBuffer part) {
+    BlobDataPacket p = new BlobDataPacket();
+    p.hash = hash;
+    p.data = part;
     return p;
   }
 
@@ -226,10 +641,10 @@ public class ClajProxy extends ProxyClient {
   }
 
   @Override
-  protected VirtualConnection conConnected(int conId, long addressHash) {
+  protected VirtualConnection conConnected(int conId, long addressHash, int slot) {
     if (!roomCreated()) return null;
     VirtualConnection con = getConnection(conId);
-    return con == null ? super.conConnected(conId, addressHash) : con;
+    return con == null ? super.conConnected(conId, addressHash, slot) : con;
   }
 
   @Override
@@ -246,4 +661,20 @@ public class ClajProxy extends ProxyClient {
   protected VirtualConnection conIdle(int conId) {
     return roomCreated() ? super.conIdle(conId) : null;
   }
+
+  @Override
+  protected VirtualConnection conCongested(int conId, boolean congested) {
+    return roomCreated() ? super.conCongested(conId, congested) : null;
+  }
+
+
+  protected static class OfferedBlob {
+    public final ByteBuffer data;
+    /** Offers not yet answered by the server. */
+    public int offers;
+
+    public OfferedBlob(ByteBuffer data) {
+      this.data = data;
+    }
+  }
 }
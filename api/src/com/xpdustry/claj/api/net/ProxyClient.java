@@ -22,6 +22,7 @@ package com.xpdustry.claj.api.net;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.nio.channels.ClosedSelectorException;
+import java.util.Arrays;
 
 import arc.func.Cons;
 import arc.net.ArcNetException;
@@ -30,6 +31,7 @@ import arc.net.DcReason;
 import arc.net.NetListener;
 import arc.net.NetSerializer;
 import arc.struct.IntMap;
+import arc.struct.IntSeq;
 import arc.struct.Queue;
 
 import com.xpdustry.claj.common.ClajPackets.Disconnect;
@@ -43,7 +45,14 @@ import com.xpdustry.claj.common.util.Structs;
  * - Packet reception must be done manually. <br>
  * - Notifying methods must be called ({@link #conConnected}, {@link #conDisconnected}, {@link #conReceived} and
  * {@link #conIdle}). <br>
- * - Packet making methods must be defined ({@link #makeConWrapPacket} and {@link #makeConClosePacket}).
+ * - Packet making methods must be defined ({@link #makeConWrapPacket}, {@link #makeConMulticastPacket}
+ * and {@link #makeConClosePacket}).
+ * <p>
+ * If {@link #canMulticast()}, the same object sent to multiple connections in a row, like a broadcast,
+ * is coalesced into one packet made by {@link #makeConMulticastPacket}. The first send is never delayed,
+ * so the multicast only targets the following connections. Objects are compared by their {@link #snapshot},
+ * as the game can reuse and modify them between sends. <br>
+ * And reliable wrapped packets can be grouped in one frame by overriding {@link #batch} and {@link #flushBatch}.
  */
 public abstract class ProxyClient extends Client {
   public static int defaultTimeout = 5000; //ms
@@ -56,10 +65,14 @@ public abstract class ProxyClient extends Client {
 
   /** For faster get. */
   protected final IntMap<VirtualConnection> connectionsMap = new IntMap<>();
+  /** Connections by room-local slot. */
+  protected final IntMap<VirtualConnection> slotsMap = new IntMap<>();
   /** For faster iteration. */
   protected VirtualConnection[] connections = {};
   protected NetListener conListener;
   protected volatile boolean shutdown = true, starting, connecting;
+  /** Whether virtual connections are kept when the connection to the server is closed, to re-attach later. */
+  protected volatile boolean keepConnections;
   protected ClientReceiver receiver;
   protected long lastPing;
   protected Cons<Throwable> errorHandler;
@@ -69,9 +82,32 @@ public abstract class ProxyClient extends Client {
   protected int writeBufferThreshold;
   protected volatile boolean hasQueued = false; // used for fast check
 
+  /** Pending multicast. Guarded by {@link #multicastLock}. */
+  protected final Object multicastLock = new Object();
+  protected Object multicastObject;
+  protected boolean multicastTCP, multicastPosted;
+  protected int[] multicastTargets = new int[16];
+  protected int multicastCount;
+  /** Connection that was already sent the pending multicast object, if {@link #multicastHasSent}. */
+  protected int multicastSent;
+  protected boolean multicastHasSent;
+  /** Snapshot of the last object sent alone, it starts a multicast if sent again to another connection. */
+  protected Object lastObject;
+  protected boolean lastTCP;
+  protected int lastTarget;
+  protected volatile boolean hasMulticast = false; // used for fast check
+  protected final Cons<Runnable> taskPoster;
+  protected final Runnable multicastFlusher = () -> {
+    synchronized (multicastLock) {
+      multicastPosted = false;
+      flushMulticast();
+    }
+  };
+
   public ProxyClient(int writeBufferSize, int objectBufferSize, NetSerializer serialization,
                      Cons<Runnable> taskPoster) {
     super(writeBufferSize, objectBufferSize, serialization);
+    this.taskPoster = taskPoster;
     receiver = new ClientReceiver(this, taskPoster);
     writeBufferThreshold = (int)(writeBufferSize * 0.8f);
 
@@ -106,6 +142,7 @@ public abstract class ProxyClient extends Client {
     updatePing();
     super.update(timeout);
     updateIdle();
+    flushBatch();
     flushPacketQueue();
   }
 
@@ -148,14 +185,14 @@ public abstract class ProxyClient extends Client {
 
   @Override
   public void close() {
-    closeAllConnections(DcReason.closed);
+    if (!keepConnections) closeAllConnections(DcReason.closed);
     super.close();
   }
 
   @Override
   public void close(DcReason reason) {
     // We cannot communicate with the server anymore, so close all virtual connections
-    closeAllConnections(reason);
+    if (!keepConnections) closeAllConnections(reason);
     super.close(reason);
   }
 
@@ -166,6 +203,7 @@ public abstract class ProxyClient extends Client {
 
   protected void addConnection(VirtualConnection con) {
     connectionsMap.put(con.getID(), con);
+    if (con.slot >= 0) slotsMap.put(con.slot, con);
     // Connections are added at the start instead of end
     //connections = Structs.add(connections, con);
     connections = Structs.insert(connections, 0, con);
@@ -173,11 +211,13 @@ public abstract class ProxyClient extends Client {
 
   protected void removeConnection(VirtualConnection con) {
     connectionsMap.remove(con.getID());
+    if (con.slot >= 0 && slotsMap.get(con.slot) == con) slotsMap.remove(con.slot);
     connections = Structs.remove(connections, con);
   }
 
   protected void clearConnections() {
     connectionsMap.clear();
+    slotsMap.clear();
     connections = new VirtualConnection[0];
   }
 
@@ -185,16 +225,155 @@ public abstract class ProxyClient extends Client {
     return connectionsMap.get(id);
   }
 
+  public VirtualConnection getConnectionBySlot(int slot) {
+    return slotsMap.get(slot);
+  }
+
   public VirtualConnection[] getConnections() {
     return connections;
   }
 
   public int send(VirtualConnection con, Object object, boolean tcp) {
     if(object == null) throw new IllegalArgumentException("object cannot be null.");
-    Object p = makeConWrapPacket(con.getID(), object, tcp);
+    // The server would drop it anyway
+    if (!tcp && con.congested) return 0;
+    if (canMulticast()) return coalesce(con, object, tcp);
+    if (tcp) con.addressed = true;
+    return sendWrap(con.getID(), object, tcp);
+  }
+
+  /** Sends a wrapped packet, or adds it to the pending batch if reliable. */
+  protected int sendWrap(int conId, Object object, boolean tcp) {
+    if (tcp && batch(conId, object)) return 0;
+    Object p = makeConWrapPacket(conId, object, tcp);
+    return tcp ? sendSafeTCP(p) : sendUDP(p);
+  }
+
+  /**
+   * Adds the connection to the pending multicast, if the object is the same. Else the multicast is sent before. <br>
+   * An object not sent just before is sent right away, as it may only have this target.
+   * Else a multicast is started, which is sent when all connections are targeted, when something else is sent,
+   * or at the next posted task.
+   */
+  protected int coalesce(VirtualConnection con, Object object, boolean tcp) {
+    // Taken now, the object may be modified before the multicast is sent
+    Object snapshot = snapshot(object);
+    synchronized (multicastLock) {
+      int id = con.getID();
+      if (snapshot == null) {
+        flushMulticast();
+        if (tcp) con.addressed = true;
+        return sendWrap(id, object, tcp);
+      }
+      object = snapshot;
+
+      if (multicastCount > 0 && (!sameSnapshot(multicastObject, object) || multicastTCP != tcp ||
+                                 (multicastHasSent && multicastSent == id) ||
+                                 Structs.contains(multicastTargets, multicastCount, id)))
+        flushMulticast();
+
+      if (multicastCount == 0) {
+        if (lastObject == null || !sameSnapshot(lastObject, object) || lastTCP != tcp || lastTarget == id) {
+          // Don't delay what may be a unicast
+          lastObject = object;
+          lastTCP = tcp;
+          lastTarget = id;
+          if (tcp) con.addressed = true;
+          return sendWrap(id, object, tcp);
+        }
+        // Sent again to another connection, likely a broadcast
+        multicastSent = lastTarget;
+        multicastHasSent = true;
+        lastObject = null;
+      }
+
+      if (multicastCount == multicastTargets.length)
+        multicastTargets = Arrays.copyOf(multicastTargets, multicastCount * 2);
+      multicastTargets[multicastCount++] = id;
+      multicastObject = object;
+      multicastTCP = tcp;
+      hasMulticast = true;
+
+      // All connections are targeted, no need to wait
+      if (multicastCount + (multicastHasSent ? 1 : 0) >= connections.length) return flushMulticast();
+      if (!multicastPosted) {
+        multicastPosted = true;
+        taskPoster.get(multicastFlusher);
+      }
+      return 0;
+    }
+  }
+
+  /**
+   * Sends the pending multicast, if any. <br>
+   * A single target is sent as a normal wrap packet. And when most of the connections are targeted,
+   * the others are excluded instead, as long as all targets were already {@link VirtualConnection#addressed}.
+   * The connection that was already sent the object is then excluded too.
+   */
+  public int flushMulticast() {
+    if (!hasMulticast) return 0; // fast check
+    Object p = null, object;
+    boolean tcp;
+    int single = 0;
+    synchronized (multicastLock) {
+      if (multicastCount == 0) return 0;
+      object = multicastObject;
+      int[] targets = multicastTargets;
+      int count = multicastCount;
+      tcp = multicastTCP;
+      multicastObject = null;
+      multicastCount = 0;
+      multicastHasSent = false;
+      hasMulticast = false;
+
+      if (count == 1) {
+        VirtualConnection con = getConnection(targets[0]);
+        if (con != null && tcp) con.addressed = true;
+        single = targets[0];
+      } else {
+        VirtualConnection[] connections = this.connections;
+        int[] excluded = count * 2 > connections.length ? excluded(connections, targets, count) : null;
+        if (excluded != null) p = makeConMulticastPacket(excluded, excluded.length, true, object, tcp);
+        else {
+          for (int i=0; i<count; i++) {
+            VirtualConnection con = getConnection(targets[i]);
+            if (con != null && tcp) con.addressed = true;
+          }
+          p = makeConMulticastPacket(Arrays.copyOf(targets, count), count, false, object, tcp);
+        }
+      }
+    }
+    if (p == null) return sendWrap(single, object, tcp);
     return tcp ? sendSafeTCP(p) : sendUDP(p);
   }
 
+  /** @return the connections not targeted, or {@code null} if a target was never addressed. */
+  protected int[] excluded(VirtualConnection[] connections, int[] targets, int count) {
+    int[] excluded = new int[connections.length];
+    int size = 0;
+    for (VirtualConnection con : connections) {
+      boolean targeted = Structs.contains(targets, count, con.getID());
+      if (targeted && !con.addressed) return null;
+      if (!targeted) excluded[size++] = con.getID();
+    }
+    return Arrays.copyOf(excluded, size);
+  }
+
+  /** Sends the pending multicast and batch before, to keep the order. */
+  @Override
+  public int sendTCP(Object object) {
+    flushMulticast();
+    flushBatch();
+    return super.sendTCP(object);
+  }
+
+  /** Sends the pending multicast before, to keep the order. */
+  @Override
+  public int sendUDP(Object object) {
+    flushMulticast();
+    return super.sendUDP(object);
+  }
+
   /**
    * Because all {@link VirtualConnection}s shares the same tcp buffer, it can be filled quickly. <br>
    * This tries to queue packets when needed, to avoid an overflow.
@@ -217,8 +396,9 @@ public abstract class ProxyClient extends Client {
   public void flushPacketQueue() {
     if (!hasQueued) return; // fast check
     synchronized (packetQueue) {
+      // Queued packets are older than the pending multicast, so don't flush it
       while (!packetQueue.isEmpty() && getTcpWriteBufferSize() <= writeBufferThreshold)
-        sendTCP(packetQueue.removeFirst());
+        super.sendTCP(packetQueue.removeFirst());
       hasQueued = !packetQueue.isEmpty();
     }
   }
@@ -261,11 +441,19 @@ public abstract class ProxyClient extends Client {
     removeConnection(con);
   }
 
-  /** @return never {@code null}. */
   protected VirtualConnection conConnected(int conId, long addressHash) {
+    return conConnected(conId, addressHash, -1);
+  }
+
+  /**
+   * @param slot room-local slot of the connection, {@code -1} if none.
+   * @return never {@code null}.
+   */
+  protected VirtualConnection conConnected(int conId, long addressHash, int slot) {
     VirtualConnection con = getConnection(conId);
     if (con == null) {
       con = new VirtualConnection(this, conId, addressHash);
+      con.slot = slot;
       if (conListener != null) con.addListener(conListener);
       addConnection(con);
     }
@@ -285,12 +473,71 @@ public abstract class ProxyClient extends Client {
     return con;
   }
 
+  protected VirtualConnection conReceivedBySlot(int slot, Object object) {
+    VirtualConnection con = getConnectionBySlot(slot);
+    return con == null ? null : conReceived(con.getID(), object);
+  }
+
   protected VirtualConnection conIdle(int conId) {
     VirtualConnection con = getConnection(conId);
     if (con != null) con.notifyIdle0();
     return con;
   }
 
+  /** Notifies the idle connections, in one pass. */
+  protected void conIdle(IntSeq conIds) {
+    for (int i=0; i<conIds.size; i++) {
+      VirtualConnection con = getConnection(conIds.items[i]);
+      if (con != null) con.notifyIdle0();
+    }
+  }
+
+  /** Updates the return trip time between the server and the connections. */
+  protected void conLatency(IntSeq conIds, IntSeq rtts) {
+    for (int i=0; i<conIds.size; i++) {
+      VirtualConnection con = getConnection(conIds.items[i]);
+      if (con != null) con.relayReturnTripTime = rtts.items[i];
+    }
+  }
+
+  protected VirtualConnection conCongested(int conId, boolean congested) {
+    VirtualConnection con = getConnection(conId);
+    if (con != null) con.congested = congested;
+    return con;
+  }
+
+  /** @return whether sends to multiple connections can be coalesced in one packet. */
+  protected boolean canMulticast() {
+    return false;
+  }
+
+  /**
+   * @return an immutable copy of the object, like its serialized form, which is sent instead of it.
+   *         {@code null} to send the object without coalescing it.
+   */
+  protected Object snapshot(Object object) {
+    return null;
+  }
+
+  /** @return whether the two {@link #snapshot snapshots} have the same content. */
+  protected boolean sameSnapshot(Object a, Object b) {
+    return a.equals(b);
+  }
+
+  /**
+   * Adds a reliable wrapped packet to the pending batch. The batch must be sent by {@link #flushBatch()}.
+   * @return whether the packet was batched, else it will be sent alone.
+   */
+  protected boolean batch(int conId, Object object) {
+    return false;
+  }
+
+  /** Sends the pending batch, if any. Called before any other reliable send and at each update. */
+  public void flushBatch() {}
+
   protected abstract Object makeConWrapPacket(int conId, Object object, boolean tcp);
+  /** @param exclude whether to send to all connections except the targets. */
+  protected abstract Object makeConMulticastPacket(int[] conIds, int count, boolean exclude, Object object,
+                                                   boolean tcp);
   protected abstract Object makeConClosePacket(int conId, DcReason reason);
 }
@@ -51,6 +51,17 @@ public class VirtualConnection extends Connection {
    */
   protected final InetSocketAddress remoteAddress;
   protected String name;
+  /**
+   * Whether a reliable packet has been sent individually to this connection. <br>
+   * Only addressed connections can be implicitly targeted by a multicast.
+   */
+  protected volatile boolean addressed;
+  /** Room-local slot, for the compact framing. {@code -1} if not used. */
+  protected int slot = -1;
+  /** Whether the server reported this connection as congested. Unreliable packets are dropped meanwhile. */
+  protected volatile boolean congested;
+  /** Return trip time between the server and the client, as reported by the server. {@code -1} if unknown. */
+  protected volatile int relayReturnTripTime = -1;
 
   /**
    * A virtual connection is always connected until we closing it. <br>
@@ -116,14 +127,22 @@ public class VirtualConnection extends Connection {
 
   @Override
   public int getID() { return id; }
+  public int getSlot() { return slot; }
+  public boolean isCongested() { return congested; }
   @Override
   public boolean isConnected() { return isConnected; }
   @Override
   public ArcNetException getLastProtocolError() { return proxy.getLastProtocolError(); }
   @Override
   public void updateReturnTripTime() { proxy.updateReturnTripTime(); }
+  /** @return the return trip time of the host to the server, plus the one of the server to the client if known. */
   @Override
-  public int getReturnTripTime() { return proxy.getReturnTripTime(); }
+  public int getReturnTripTime() {
+    int relay = relayReturnTripTime;
+    return proxy.getReturnTripTime() + Math.max(relay, 0);
+  }
+  /** @return the return trip time between the server and the client, {@code -1} if not reported by the server. */
+  public int getRelayReturnTripTime() { return relayReturnTripTime; }
   @Override
   public void setKeepAliveTCP(int keepAliveMillis) {} // never used
   @Override
@@ -33,37 +33,84 @@ public class ClajNet {
   public static final byte oldId = -3;
   /** Identifier for CLaJ packets. */
   public static final byte id = -4;
+  /**
+   * Identifier for compact wrapped packets. Replaces the CLaJ id and the packet id.
+   * @see com.xpdustry.claj.common.packets.ConnectionPacketWrapPacket#compact
+   */
+  public static final byte wrapId = -5;
 
   /** Maximum number of packet that can be registered. */
   public static final int MAX_PACKETS = 256;
 
   protected static final ObjectMap<Class<?>, Byte> packetToId = new ObjectMap<>(32);
-  protected static final ObjectMap<Byte, Prov<?>> idToPacket = new ObjectMap<>(32);
+  /** Packet factories, indexed by the unsigned packet id. */
+  protected static final Prov<?>[] factories = new Prov<?>[MAX_PACKETS];
+  /** Number of packets registered for serialization, and of local packets. (indexed from the end) */
+  protected static int registered, locals;
+  /** Index of each packet type, resolved once per class. */
+  protected static final ClassValue<Integer> indexes = new ClassValue<>() {
+    @Override
+    protected Integer computeValue(Class<?> type) { return computeIndex(type); }
+  };
 
   /**
-   * Registers a new packet type for serialization. Ignores if already registered.
+   * Registers a new packet type for serialization. Ignores if already registered. <br>
+   * Must be called before the packet is {@link #indexOf(Class) indexed}.
    * @throws IllegalArgumentException if no id is available for this packet. ({@code 256} packets max)
    */
-  public static <T extends Packet> void register(Prov<T> cons) {
+  public static synchronized <T extends Packet> void register(Prov<T> cons) {
     Class<?> type = cons.get().getClass();
-    if (packetToId.containsKey(type)) return;
-    if (packetToId.size >= MAX_PACKETS) throw new IllegalArgumentException("packet limit reached");
-    byte id = (byte)packetToId.size;
+    Byte old = packetToId.get(type);
+    if (old != null) {
+      if (!isRegistered(old & 0xff)) throw new IllegalStateException("Packet already indexed as local: " + type);
+      return;
+    }
+    if (registered + locals >= MAX_PACKETS) throw new IllegalArgumentException("packet limit reached");
+    byte id = (byte)registered++;
     packetToId.put(type, id);
-    idToPacket.put(id, cons);
+    factories[id & 0xff] = cons;
+  }
+
+  /** Gives an index to packets not sent over the network. (e.g. events) They are indexed from the end. */
+  protected static synchronized int computeIndex(Class<?> type) {
+    Byte id = packetToId.get(type);
+    if (id != null) return id & 0xff;
+    if (registered + locals >= MAX_PACKETS) throw new IllegalArgumentException("packet limit reached");
+    int index = MAX_PACKETS - ++locals;
+    packetToId.put(type, (byte)index);
+    return index;
   }
 
-  public static byte getId(Packet packet) { return getId(packet.getClass()); }
+  /**
+   * @return the index of the packet type, from {@code 0} to {@link #MAX_PACKETS} (exclusive),
+   *         to use the packet in id-indexed tables. This is the id for registered packets.
+   */
+  public static int indexOf(Class<?> type) {
+    return indexes.get(type);
+  }
+
+  /** @return whether this index is the id of a registered packet. */
+  public static boolean isRegistered(int index) {
+    return index < registered;
+  }
+
+  public static byte getId(Packet packet) {
+    int index = packet.id();
+    if (!isRegistered(index)) throw new ArcNetException("Unknown packet type: " + packet.getClass());
+    return (byte)index;
+  }
   public static byte getId(Class<? extends Packet> packet) {
-    Byte id = packetToId.get(packet);
-    if(id == null) throw new ArcNetException("Unknown packet type: " + packet.getClass());
-    return id;
+    int index = indexOf(packet);
+    if (!isRegistered(index)) throw new ArcNetException("Unknown packet type: " + packet);
+    return (byte)index;
   }
 
   @SuppressWarnings("unchecked")
   public static <T extends Packet> T newPacket(byte id) {
-    Prov<?> packet = idToPacket.get(id);
-    if (packet == null) throw new ArcNetException("Unknown packet id: " + id);
-    return (T)packet.get();
+    Prov<?> factory = factories[id & 0xff];
+    if (factory == null) throw new ArcNetException("Unknown packet id: " + id);
+    T packet = (T)factory.get();
+    packet.id(id & 0xff);
+    return packet;
   }
 }
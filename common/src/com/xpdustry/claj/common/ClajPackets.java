@@ -51,21 +51,43 @@ public class ClajPackets {
     ClajNet.register(ClajPopupPacket::new);
     ClajNet.register(StreamHead::new);
     ClajNet.register(StreamChunk::new);
+    ClajNet.register(ConnectionPacketMulticastPacket::new);
+    ClajNet.register(ConnectionPacketBatchPacket::new);
+    ClajNet.register(BlobOfferPacket::new);
+    ClajNet.register(BlobStatePacket::new);
+    ClajNet.register(BlobDataPacket::new);
+    ClajNet.register(ConnectionCongestionPacket::new);
+    ClajNet.register(ServerRedirectPacket::new);
+    ClajNet.register(RoomMigratePacket::new);
+    ClajNet.register(ConnectionIdleSetPacket::new);
+    ClajNet.register(ConnectionLatencyPacket::new);
   }
 
 
   /** Generic client connection event. */
   public static class Connect implements Packet {
+    private static final int INDEX = ClajNet.indexOf(Connect.class);
     public String address;
+
+    @Override
+    public int id() { return INDEX; }
   }
 
   /** Generic client disconnection event. */
   public static class Disconnect implements Packet {
+    private static final int INDEX = ClajNet.indexOf(Disconnect.class);
     public arc.net.DcReason reason;
+
+    @Override
+    public int id() { return INDEX; }
   }
 
   /** Generic client idle event. */
   public static class Idle implements Packet {
+    private static final int INDEX = ClajNet.indexOf(Idle.class);
     public static final Idle instance = new Idle();
+
+    @Override
+    public int id() { return INDEX; }
   }
 }
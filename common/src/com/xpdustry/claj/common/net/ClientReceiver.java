@@ -19,11 +19,13 @@
 
 package com.xpdustry.claj.common.net;
 
+import java.util.Arrays;
+
 import arc.func.Cons;
 import arc.net.*;
-import arc.struct.ObjectMap;
 import arc.util.Log;
 
+import com.xpdustry.claj.common.ClajNet;
 import com.xpdustry.claj.common.ClajPackets.*;
 import com.xpdustry.claj.common.net.stream.StreamPacket;
 import com.xpdustry.claj.common.net.stream.StreamReceiver;
@@ -33,7 +35,9 @@ import com.xpdustry.claj.common.util.AddressUtil;
 
 /** A client listener that can delegate packet decoding and reception to the main app. */
 public class ClientReceiver implements NetListener {
-  protected final ObjectMap<Class<?>, Cons<?>> listeners = new ObjectMap<>(32);
+  /** Listeners of each packet type, indexed by {@link Packet#id()}, and called in the order they were added. */
+  @SuppressWarnings("unchecked")
+  protected final Cons<Packet>[][] listeners = new Cons[ClajNet.MAX_PACKETS][];
   protected Cons<Runnable> delegator;
   protected Cons<Throwable> errorHandler;
   protected NetListenerFilter filter;
@@ -95,21 +99,27 @@ public class ClientReceiver implements NetListener {
     handle(type, _ -> listener.run());
   }
 
+  @SuppressWarnings("unchecked")
   public <T extends Packet> void handle(Class<T> type, Cons<T> listener) {
-    Cons<T> old = getListener(type);
-    if (old != null) {
-      Cons<T> current = listener;
-      listener = p -> {
-        old.get(p);
-        current.get(p);
-      };
-    }
-    listeners.put(type, listener);
+    int id = ClajNet.indexOf(type);
+    Cons<Packet>[] old = listeners[id];
+    Cons<Packet>[] list = old == null ? new Cons[1] : Arrays.copyOf(old, old.length + 1);
+    list[list.length - 1] = (Cons<Packet>)listener;
+    listeners[id] = list;
   }
 
+  /** @return the listeners of the packet type, or {@code null} if none. */
+  public Cons<Packet>[] getListeners(Class<? extends Packet> type) {
+    return listeners[ClajNet.indexOf(type)];
+  }
+
+  /** @return a listener calling all the listeners of the packet type, or {@code null} if none. */
   @SuppressWarnings("unchecked")
   public <T extends Packet> Cons<T> getListener(Class<T> type) {
-    return (Cons<T>)listeners.get(type);
+    Cons<Packet>[] list = getListeners(type);
+    if (list == null) return null;
+    if (list.length == 1) return (Cons<T>)list[0];
+    return p -> { for (Cons<Packet> listener : list) listener.get(p); };
   }
 
   /** Send packet reception to the main thread or not according to {@link #delegated}. */
@@ -118,7 +128,6 @@ public class ClientReceiver implements NetListener {
     else received(packet);
   }
 
-  @SuppressWarnings("unchecked")
   public void received(Packet packet) {
     if (!packet.allow(false)) return; // Throw away unwanted packets
 
@@ -131,9 +140,9 @@ public class ClientReceiver implements NetListener {
         return;
       }
 
-      var listener = (Cons<Packet>)listeners.get(packet.getClass());
-      if (listener != null) listener.get(packet);
-      else packet.handleClient();
+      Cons<Packet>[] list = listeners[packet.id()];
+      if (list == null) packet.handleClient();
+      else for (Cons<Packet> listener : list) listener.get(packet);
     } catch (Throwable e) { errorHandler.get(e); }
   }
 }
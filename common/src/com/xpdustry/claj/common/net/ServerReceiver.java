@@ -19,12 +19,15 @@
 
 package com.xpdustry.claj.common.net;
 
+import java.util.Arrays;
+
+import arc.func.Boolf2;
 import arc.func.Cons;
 import arc.func.Cons2;
 import arc.net.*;
-import arc.struct.ObjectMap;
 import arc.util.Log;
 
+import com.xpdustry.claj.common.ClajNet;
 import com.xpdustry.claj.common.ClajPackets.*;
 import com.xpdustry.claj.common.net.stream.StreamPacket;
 import com.xpdustry.claj.common.net.stream.StreamReceiver;
@@ -34,7 +37,13 @@ import com.xpdustry.claj.common.util.AddressUtil;
 
 /** A server listener that can delegate packet decoding and reception to the main app. */
 public class ServerReceiver implements NetListener {
-  protected final ObjectMap<Class<?>, Cons2<Connection, ?>> listeners = new ObjectMap<>(32);
+  /** Listeners of each packet type, indexed by {@link Packet#id()}, and called in the order they were added. */
+  @SuppressWarnings("unchecked")
+  protected final Cons2<Connection, Packet>[][] listeners = new Cons2[ClajNet.MAX_PACKETS][];
+  /** Listeners called in the receiving thread, before delegation. Indexed like {@link #listeners}. */
+  @SuppressWarnings("unchecked")
+  protected final Boolf2<Connection, Packet>[] directListeners = new Boolf2[ClajNet.MAX_PACKETS];
+  protected int directCount;
   protected Cons<Runnable> delegator;
   protected Cons<Throwable> errorHandler;
   protected NetListenerFilter filter;
@@ -78,12 +87,14 @@ public class ServerReceiver implements NetListener {
   public void received(Connection connection, Object object) {
     if (!filter.received(connection, object)) return;
     if (!(object instanceof Packet packet)) return;
+    if (receivedDirect(connection, packet)) return;
     delegateReceive(connection, packet);
   }
 
   @Override
   public void idle(Connection connection) {
     if (!filter.idle(connection)) return;
+    if (receivedDirect(connection, Idle.instance)) return;
     delegateReceive(connection, Idle.instance);
   }
 
@@ -100,30 +111,82 @@ public class ServerReceiver implements NetListener {
     handle(type, (c, _) -> listener.get(c));
   }
 
+  @SuppressWarnings("unchecked")
   public <T extends Packet> void handle(Class<T> type, Cons2<Connection, T> listener) {
-    Cons2<Connection, T> old = getListener(type);
-    if (old != null) {
-      Cons2<Connection, T> current = listener;
-      listener = (c, p) -> {
-        old.get(c, p);
-        current.get(c, p);
-      };
-    }
-    listeners.put(type, listener);
+    int id = ClajNet.indexOf(type);
+    Cons2<Connection, Packet>[] old = listeners[id];
+    Cons2<Connection, Packet>[] list = old == null ? new Cons2[1] : Arrays.copyOf(old, old.length + 1);
+    list[list.length - 1] = (Cons2<Connection, Packet>)listener;
+    listeners[id] = list;
   }
 
+  /** @return the listeners of the packet type, or {@code null} if none. */
+  public Cons2<Connection, Packet>[] getListeners(Class<? extends Packet> type) {
+    return listeners[ClajNet.indexOf(type)];
+  }
+
+  /** @return a listener calling all the listeners of the packet type, or {@code null} if none. */
   @SuppressWarnings("unchecked")
   public <T extends Packet> Cons2<Connection, T> getListener(Class<T> type) {
-    return (Cons2<Connection, T>)listeners.get(type);
+    Cons2<Connection, Packet>[] list = getListeners(type);
+    if (list == null) return null;
+    if (list.length == 1) return (Cons2<Connection, T>)list[0];
+    return (c, p) -> { for (Cons2<Connection, Packet> listener : list) listener.get(c, p); };
   }
 
-  /** Send packet reception to the main thread or not according to {@link #delegated}. */
-  public void delegateReceive(Connection connection, Packet packet) {
-    if (delegated()) delegator.get(() -> received(connection, packet));
-    else received(connection, packet);
+  /**
+   * Sets a listener that will be called in the receiving thread (e.g. the network thread), before delegation.
+   * The listener must return {@code false} to let the packet be delegated as usual. <br>
+   * Only one listener per packet type is allowed, and it must be thread-safe.
+   */
+  @SuppressWarnings("unchecked")
+  public <T extends Packet> void handleDirect(Class<T> type, Boolf2<Connection, T> listener) {
+    int id = ClajNet.indexOf(type);
+    if (directListeners[id] == null && listener != null) directCount++;
+    else if (directListeners[id] != null && listener == null) directCount--;
+    directListeners[id] = (Boolf2<Connection, Packet>)listener;
   }
 
   @SuppressWarnings("unchecked")
+  public <T extends Packet> Boolf2<Connection, T> getDirectListener(Class<T> type) {
+    return (Boolf2<Connection, T>)directListeners[ClajNet.indexOf(type)];
+  }
+
+  /** @return whether the packet has a direct listener. */
+  public boolean hasDirectListener(Packet packet) {
+    return directCount != 0 && directListeners[packet.id()] != null;
+  }
+
+  /**
+   * Calls the direct listener of the packet, if any.
+   * @return whether the packet has been handled and must not be delegated.
+   */
+  public boolean receivedDirect(Connection connection, Packet packet) {
+    if (directCount == 0) return false;
+    Boolf2<Connection, Packet> listener = directListeners[packet.id()];
+    if (listener == null) return false;
+    if (!packet.allow(true)) return true; // Throw away unwanted packets
+
+    try {
+      packet.handled(); // does nothing if called twice
+      return listener.get(connection, packet);
+    } catch (Throwable e) {
+      errorHandler.get(e);
+      return true;
+    }
+  }
+
+  /**
+   * Send packet reception to the main thread or not according to {@link #delegated}. <br>
+   * The packet is {@link Packet#detach() detached} before being delegated.
+   */
+  public void delegateReceive(Connection connection, Packet packet) {
+    if (delegated()) {
+      Packet detached = packet.detach();
+      delegator.get(() -> received(connection, detached));
+    } else received(connection, packet);
+  }
+
   public void received(Connection connection, Packet packet) {
     if (!packet.allow(true)) return; // Throw away unwanted packets
 
@@ -136,9 +199,9 @@ public class ServerReceiver implements NetListener {
         return;
       }
 
-      var listener = (Cons2<Connection, Packet>)listeners.get(packet.getClass());
-      if (listener != null) listener.get(connection, packet);
-      else packet.handleServer(connection);
+      Cons2<Connection, Packet>[] list = listeners[packet.id()];
+      if (list == null) packet.handleServer(connection);
+      else for (Cons2<Connection, Packet> listener : list) listener.get(connection, packet);
     } catch (Throwable e) { errorHandler.get(e); }
   }
 }
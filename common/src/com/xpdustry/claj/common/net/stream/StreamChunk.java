@@ -29,6 +29,9 @@ public class StreamChunk implements StreamPacket {
   public boolean last;
   public byte[] data;
 
+  /** Index of this packet type, {@code -1} if not resolved yet. */
+  private int index = -1;
+
   @Override
   public void read(ByteBufferInput in) {
     id = in.readInt();
@@ -44,4 +47,15 @@ public class StreamChunk implements StreamPacket {
     out.writeShort((short)data.length);
     out.write(data);
   }
+
+  @Override
+  public int id() {
+    int i = index;
+    return i != -1 ? i : (index = StreamPacket.super.id());
+  }
+
+  @Override
+  public void id(int id) {
+    index = id;
+  }
 }
@@ -33,6 +33,9 @@ public class StreamHead implements StreamPacket {
   public byte type;
   public boolean compressed;
 
+  /** Index of this packet type, {@code -1} if not resolved yet. */
+  private int index = -1;
+
   @Override
   public void read(ByteBufferInput in) {
     id = in.readInt();
@@ -48,4 +51,15 @@ public class StreamHead implements StreamPacket {
     out.writeByte(type);
     out.writeBoolean(compressed);
   }
+
+  @Override
+  public int id() {
+    int i = index;
+    return i != -1 ? i : (index = StreamPacket.super.id());
+  }
+
+  @Override
+  public void id(int id) {
+    index = id;
+  }
 }
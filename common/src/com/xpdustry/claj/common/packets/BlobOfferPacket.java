@@ -0,0 +1,79 @@
+/**
+ * This file is part of CLaJ. The system that allows you to play with your friends,
+ * just by creating a room, copying the link and sending it to your friends.
+ * Copyright (c) 2025-2026  Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.xpdustry.claj.common.packets;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import arc.util.Threads;
+import arc.util.io.ByteBufferInput;
+import arc.util.io.ByteBufferOutput;
+
+
+/**
+ * Offers a blob to a connection of the room, by its content hash. <br>
+ * The server answers with a {@link BlobStatePacket}, and the host uploads the blob with {@link BlobDataPacket}s
+ * if the server doesn't have it. The server then sends it to the connection, before the next packets for it.
+ * <p>
+ * A blob is a sequence of entries: {@code [u16 length][payload]}, each payload is sent as a packet.
+ * Must only be sent if the {@link com.xpdustry.claj.common.status.ClajFeature#blobCache} feature is enabled.
+ */
+public class BlobOfferPacket extends ConnectionWrapperPacket {
+  /** Maximum size of a blob. */
+  public static final int MAX_SIZE = 1 << 23;
+  private static final ThreadLocal<MessageDigest> digest = Threads.local(() -> {
+    try { return MessageDigest.getInstance("SHA-256"); }
+    catch (NoSuchAlgorithmException e) { throw new RuntimeException(e); }
+  });
+
+  public long hash;
+  public int size;
+
+  @Override
+  protected void readImpl(ByteBufferInput read) {
+    super.readImpl(read);
+    hash = read.readLong();
+    size = read.readInt();
+  }
+
+  @Override
+  public void write(ByteBufferOutput write) {
+    super.write(write);
+    write.writeLong(hash);
+    write.writeInt(size);
+  }
+
+  @Override
+  public boolean allow(boolean isServer) {
+    return isServer;
+  }
+
+  /** @return the content hash of the remaining bytes, without consuming them. (first 64 bits of SHA-256) */
+  public static long hash(ByteBuffer data) {
+    MessageDigest md = digest.get();
+    md.reset();
+    md.update(data.duplicate());
+    byte[] h = md.digest();
+    long hash = 0;
+    for (int i=0; i<8; i++) hash = hash << 8 | h[i] & 0xff;
+    return hash;
+  }
+}
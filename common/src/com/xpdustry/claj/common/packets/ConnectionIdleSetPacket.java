@@ -0,0 +1,58 @@
+/**
+ * This file is part of CLaJ. The system that allows you to play with your friends,
+ * just by creating a room, copying the link and sending it to your friends.
+ * Copyright (c) 2025-2026  Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.xpdustry.claj.common.packets;
+
+import arc.struct.IntSeq;
+import arc.util.io.ByteBufferInput;
+import arc.util.io.ByteBufferOutput;
+
+
+/**
+ * Tells the host which connections became idle since the last notification. <br>
+ * Replaces one {@link ConnectionIdlingPacket} per idle event, the server sends it once per interval.
+ * <p>
+ * Only sent if the {@link com.xpdustry.claj.common.status.ClajFeature#idleSet} feature is enabled.
+ */
+public class ConnectionIdleSetPacket extends DelayedPacket {
+  /** Maximum number of connections in one packet. */
+  public static final int MAX_SIZE = 0xffff;
+
+  public final IntSeq conIDs = new IntSeq();
+
+  @Override
+  protected void readImpl(ByteBufferInput read) {
+    int size = read.readUnsignedShort();
+    conIDs.clear();
+    conIDs.ensureCapacity(size);
+    for (int i=0; i<size; i++) conIDs.add(read.readInt());
+  }
+
+  @Override
+  public void write(ByteBufferOutput write) {
+    int size = Math.min(conIDs.size, MAX_SIZE);
+    write.writeShort(size);
+    for (int i=0; i<size; i++) write.writeInt(conIDs.items[i]);
+  }
+
+  @Override
+  public boolean allow(boolean isServer) {
+    return !isServer;
+  }
+}
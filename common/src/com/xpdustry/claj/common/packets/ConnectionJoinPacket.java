@@ -25,17 +25,22 @@ import arc.util.io.ByteBufferOutput;
 
 public class ConnectionJoinPacket extends ConnectionWrapperPacket {
   public long addressHash;
+  /** Room-local slot of the connection, for the compact framing. {@code -1} if not used. */
+  public int slot = -1;
 
   @Override
   protected void readImpl(ByteBufferInput read) {
     super.readImpl(read);
     addressHash = read.readLong();
+    // Only sent when the compact framing is enabled
+    slot = read.buffer.remaining() >= 2 ? read.readUnsignedShort() : -1;
   }
 
   @Override
   public void write(ByteBufferOutput write) {
     super.write(write);
     write.writeLong(addressHash);
+    if (slot >= 0) write.writeShort(slot);
   }
     
   @Override
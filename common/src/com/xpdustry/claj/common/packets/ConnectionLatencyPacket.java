@@ -0,0 +1,74 @@
+/**
+ * This file is part of CLaJ. The system that allows you to play with your friends,
+ * just by creating a room, copying the link and sending it to your friends.
+ * Copyright (c) 2025-2026  Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.xpdustry.claj.common.packets;
+
+import arc.struct.IntSeq;
+import arc.util.io.ByteBufferInput;
+import arc.util.io.ByteBufferOutput;
+
+
+/**
+ * Gives the return trip time between the server and the connections of the room, measured by the server. <br>
+ * Sent periodically to the host, so it can know the real latency of each client.
+ * <p>
+ * Only sent if the {@link com.xpdustry.claj.common.status.ClajFeature#latency} feature is enabled.
+ */
+public class ConnectionLatencyPacket extends DelayedPacket {
+  /** Maximum number of connections in one packet. */
+  public static final int MAX_SIZE = 0xffff;
+
+  public final IntSeq conIDs = new IntSeq();
+  /** Return trip time of each connection, in ms. Capped to {@code 65535}. */
+  public final IntSeq rtts = new IntSeq();
+
+  public void add(int conID, int rtt) {
+    conIDs.add(conID);
+    rtts.add(rtt);
+  }
+
+  public void clear() {
+    conIDs.clear();
+    rtts.clear();
+  }
+
+  @Override
+  protected void readImpl(ByteBufferInput read) {
+    int size = read.readUnsignedShort();
+    clear();
+    conIDs.ensureCapacity(size);
+    rtts.ensureCapacity(size);
+    for (int i=0; i<size; i++) add(read.readInt(), read.readUnsignedShort());
+  }
+
+  @Override
+  public void write(ByteBufferOutput write) {
+    int size = Math.min(conIDs.size, MAX_SIZE);
+    write.writeShort(size);
+    for (int i=0; i<size; i++) {
+      write.writeInt(conIDs.items[i]);
+      write.writeShort(Math.min(Math.max(rtts.items[i], 0), 0xffff));
+    }
+  }
+
+  @Override
+  public boolean allow(boolean isServer) {
+    return !isServer;
+  }
+}
@@ -0,0 +1,130 @@
+/**
+ * This file is part of CLaJ. The system that allows you to play with your friends,
+ * just by creating a room, copying the link and sending it to your friends.
+ * Copyright (c) 2025-2026  Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.xpdustry.claj.common.packets;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+import arc.net.ArcNetException;
+import arc.struct.Seq;
+import arc.util.io.ByteBufferInput;
+import arc.util.io.ByteBufferOutput;
+
+
+/**
+ * Groups several reliable {@link ConnectionPacketWrapPacket}s in one frame, to reduce the number of frames
+ * and the header overhead of small packets. <br>
+ * Each entry is encoded as the connection id, the payload length as an unsigned short, then the payload,
+ * serialized by {@link ConnectionPacketWrapPacket#serializer}.
+ * <p>
+ * Must only be sent if the {@link com.xpdustry.claj.common.status.ClajFeature#batch} feature is enabled.
+ */
+public class ConnectionPacketBatchPacket extends DelayedPacket {
+  /** Maximum size of the encoded entries. */
+  public static final int MAX_SIZE = 8192;
+  /** Size of an entry header. */
+  public static final int ENTRY_HEADER = 6;
+
+  /** Decoded packets. */
+  public final Seq<ConnectionPacketWrapPacket> packets = new Seq<>();
+  /** Encoded entries to write. Can be made with {@link #add(ByteBuffer, int, Object)}. */
+  public ByteBuffer entries;
+
+  @Override
+  protected void readImpl(ByteBufferInput read) {
+    ConnectionPacketWrapPacket.Serializer serializer = ConnectionPacketWrapPacket.serializer;
+    if (serializer == null)
+      throw new ArcNetException("ConnectionPacketWrapPacket.serializer is not set!");
+    ByteBuffer buffer = read.buffer;
+    int limit = buffer.limit();
+
+    while (buffer.hasRemaining()) {
+      int conID = read.readInt();
+      int end = buffer.position() + read.readUnsignedShort();
+      if (end > limit) throw new ArcNetException("Invalid batch entry length");
+      ConnectionPacketWrapPacket packet = new ConnectionPacketWrapPacket();
+      packet.conID = conID;
+      packet.isTCP = true;
+      buffer.limit(end);
+      try { serializer.read(packet, read); }
+      finally { buffer.limit(limit); }
+      buffer.position(end);
+      packets.add(packet);
+    }
+  }
+
+  @Override
+  protected boolean isDelayed() {
+    return ConnectionPacketWrapPacket.serializer == null || ConnectionPacketWrapPacket.serializer.isDelayed();
+  }
+
+  @Override
+  public ConnectionPacketBatchPacket detach() {
+    for (int i=0; i<packets.size; i++) packets.items[i].detach();
+    return this;
+  }
+
+  @Override
+  public void write(ByteBufferOutput write) {
+    if (entries == null) return;
+    RawPacket.write(entries, write);
+  }
+
+  /**
+   * Appends an entry, serialized by {@link ConnectionPacketWrapPacket#serializer}, to the buffer.
+   * @return whether the entry was added, else the buffer is unchanged.
+   */
+  public static boolean add(ByteBuffer buffer, int conID, Object object) {
+    if (object instanceof RawPacket raw) return add(buffer, conID, raw);
+    ConnectionPacketWrapPacket.Serializer serializer = ConnectionPacketWrapPacket.serializer;
+    if (serializer == null)
+      throw new ArcNetException("ConnectionPacketWrapPacket.serializer is not set!");
+    int start = buffer.position();
+    if (buffer.remaining() <= ENTRY_HEADER) return false;
+    ConnectionPacketWrapPacket packet = new ConnectionPacketWrapPacket();
+    packet.conID = conID;
+    packet.isTCP = true;
+    packet.object = object;
+    buffer.putInt(conID).putShort((short)0);
+    try { serializer.write(packet, new ByteBufferOutput(buffer)); }
+    catch (BufferOverflowException e) {
+      buffer.position(start);
+      return false;
+    }
+    int length = buffer.position() - start - ENTRY_HEADER;
+    if (length > 0xffff) {
+      buffer.position(start);
+      return false;
+    }
+    buffer.putShort(start + 4, (short)length);
+    return true;
+  }
+
+  /**
+   * Appends an entry with an already serialized payload to the buffer.
+   * @return whether the entry was added, else the buffer is unchanged.
+   */
+  public static boolean add(ByteBuffer buffer, int conID, RawPacket raw) {
+    int length = raw.data.remaining();
+    if (length > 0xffff || buffer.remaining() < ENTRY_HEADER + length) return false;
+    buffer.putInt(conID).putShort((short)length).put(raw.data.duplicate());
+    return true;
+  }
+}
@@ -0,0 +1,80 @@
+/**
+ * This file is part of CLaJ. The system that allows you to play with your friends,
+ * just by creating a room, copying the link and sending it to your friends.
+ * Copyright (c) 2025-2026  Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.xpdustry.claj.common.packets;
+
+import java.nio.ByteBuffer;
+
+import arc.net.ArcNetException;
+import arc.util.io.ByteBufferInput;
+import arc.util.io.ByteBufferOutput;
+
+
+/**
+ * Same as {@link ConnectionPacketWrapPacket}, but sent to multiple connections of the room. <br>
+ * So the host only uploads the payload once, for a broadcast for example.
+ * <p>
+ * The {@link #conID} is not used, and the payload is serialized by {@link ConnectionPacketWrapPacket#serializer}.
+ * Must only be sent if the {@link com.xpdustry.claj.common.status.ClajFeature#multicast} feature is enabled.
+ */
+public class ConnectionPacketMulticastPacket extends ConnectionPacketWrapPacket {
+  private static final int[] NONE = {};
+
+  /** Whether the packet is sent to all connections except the {@link #targets}, or only to them. */
+  public boolean exclude;
+  /** Target connection ids. Only the first {@link #count} ids are used. */
+  public int[] targets = NONE;
+  public int count;
+
+  /** @return whether the connection is targeted by this packet. */
+  public boolean targets(int conID) {
+    for (int i=0; i<count; i++) {
+      if (targets[i] == conID) return !exclude;
+    }
+    return exclude;
+  }
+
+  @Override
+  protected void readImpl(ByteBufferInput read) {
+    conID = -1;
+    int flags = read.readUnsignedByte();
+    isTCP = (flags & FLAG_TCP) != 0;
+    exclude = read.readBoolean();
+    count = read.readUnsignedShort();
+    if (targets.length < count) targets = new int[count];
+    for (int i=0; i<count; i++) targets[i] = read.readInt();
+    readPayload(read, flags);
+  }
+
+  @Override
+  public void write(ByteBufferOutput write) {
+    if (count > 0xffff) throw new ArcNetException("Too many targets: " + count);
+    ByteBuffer payload = preparePayload();
+    write.writeByte((isTCP ? FLAG_TCP : 0) | (compressed ? FLAG_COMPRESSED : 0));
+    write.writeBoolean(exclude);
+    write.writeShort(count);
+    for (int i=0; i<count; i++) write.writeInt(targets[i]);
+    writePayload(write, payload);
+  }
+
+  @Override
+  public boolean allow(boolean isServer) {
+    return isServer;
+  }
+}
@@ -19,46 +19,161 @@
 
 package com.xpdustry.claj.common.packets;
 
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 
 import arc.net.ArcNetException;
 import arc.util.io.ByteBufferInput;
 import arc.util.io.ByteBufferOutput;
 
+import com.xpdustry.claj.common.util.Compression;
+
 
 /** Special packet for connection packet wrapping. */
 public class ConnectionPacketWrapPacket extends ConnectionWrapperPacket {
   /** Used to notify serializer to read/write the rest. MUST BE SET! */
   public static Serializer serializer;
+  /** Flags of the packet. {@link #FLAG_WIDE_SLOT} is only used by the compact framing. */
+  public static final int FLAG_TCP = 1, FLAG_WIDE_SLOT = 2, FLAG_COMPRESSED = 4;
 
   /** Decoded object received by the client. Should be handled by the serializer. */
   public Object object;
-  /** Copy of the raw packet received by the server. Should be handled by the serializer. */
-  public ByteBuffer raw;
+  /** Raw packet received by the server. Should be handled by the serializer. */
+  public RawPacket raw;
 
   public boolean isTCP;
+  /**
+   * Whether the packet uses the compact framing, identified by {@link com.xpdustry.claj.common.ClajNet#wrapId}:
+   * a flags byte and the {@link #slot} on 1 or 2 bytes, instead of the packet id, {@link #conID} and {@link #isTCP}.
+   * <p>
+   * Must only be sent if the {@link com.xpdustry.claj.common.status.ClajFeature#compactWrap} feature is enabled.
+   */
+  public boolean compact;
+  /** Room-local slot of the connection, used by the compact framing. */
+  public int slot = -1;
+  /**
+   * Compression of the payload when writing. {@code null} or {@link Compression.Level#none} to disable. <br>
+   * Must only be set if the {@link com.xpdustry.claj.common.status.ClajFeature#compression} feature is enabled.
+   */
+  public Compression.Level compression;
+  /** Minimum payload size to compress. (in bytes) */
+  public int compressThreshold;
+  /** Whether the payload was compressed, after reading or writing. */
+  public boolean compressed;
+  /** Size of the payload, and size of it on the wire, after reading or writing. (in bytes) */
+  public int payloadSize, wireSize;
 
   @Override
   protected void readImpl(ByteBufferInput read) {
-    super.readImpl(read);
-    isTCP = read.readBoolean();
+    int flags;
+    if (compact) {
+      flags = read.readUnsignedByte();
+      slot = (flags & FLAG_WIDE_SLOT) != 0 ? read.readUnsignedShort() : read.readUnsignedByte();
+      conID = -1;
+    } else {
+      super.readImpl(read);
+      // Was a boolean, so compatible with older versions
+      flags = read.readUnsignedByte();
+    }
+    isTCP = (flags & FLAG_TCP) != 0;
+    readPayload(read, flags);
+  }
+
+  /** Reads the payload using the {@link #serializer}, and decompresses it if needed. */
+  protected void readPayload(ByteBufferInput read, int flags) {
     if (serializer == null)
       throw new ArcNetException("ConnectionPacketWrapPacket.serializer is not set!");
-    serializer.read(this, read);
+    compressed = (flags & FLAG_COMPRESSED) != 0;
+    if (!compressed) {
+      payloadSize = wireSize = read.buffer.remaining();
+      serializer.read(this, read);
+      return;
+    }
+    payloadSize = read.readUnsignedShort();
+    wireSize = read.buffer.remaining() + 2;
+    // The decompressed buffer has the same lifetime as the network buffer: until the next read of the thread
+    serializer.read(this, Compression.input(Compression.inflate(read.buffer, payloadSize)));
+  }
+
+  @Override
+  protected boolean isDelayed() {
+    return serializer == null || serializer.isDelayed();
+  }
+
+  @Override
+  public ConnectionPacketWrapPacket detach() {
+    if (raw != null) raw = raw.detach();
+    return this;
   }
 
   @Override
   public void write(ByteBufferOutput write) {
-    super.write(write);
-    write.writeBoolean(isTCP);
+    ByteBuffer payload = preparePayload();
+    int flags = (isTCP ? FLAG_TCP : 0) | (compressed ? FLAG_COMPRESSED : 0);
+    if (compact) {
+      if (slot < 0 || slot > 0xffff) throw new ArcNetException("Invalid slot: " + slot);
+      boolean wide = slot > 0xff;
+      write.writeByte(flags | (wide ? FLAG_WIDE_SLOT : 0));
+      if (wide) write.writeShort(slot);
+      else write.writeByte(slot);
+    } else {
+      super.write(write);
+      write.writeByte(flags);
+    }
+    writePayload(write, payload);
+  }
+
+  /**
+   * Serializes the payload in a temporary buffer and compresses it, if {@link #compression} is enabled.
+   * @return the payload to write, or {@code null} to serialize it directly.
+   */
+  protected ByteBuffer preparePayload() {
+    compressed = false;
+    if (compression == null || compression == Compression.Level.none ||
+        raw != null && raw.data.remaining() < compressThreshold) return null;
+
+    ByteBuffer src = Compression.source();
+    try { writeObject(Compression.output(src)); }
+    catch (BufferOverflowException e) { return null; } // too big to be compressed
+    src.flip();
+    payloadSize = src.remaining();
+    if (payloadSize < compressThreshold) return src;
+
+    ByteBuffer deflated = Compression.deflate(src, compression);
+    if (deflated == null) return src;
+    compressed = true;
+    return deflated;
+  }
+
+  /** Writes the {@link #raw} payload if already serialized, else serializes the {@link #object}. */
+  protected void writeObject(ByteBufferOutput write) {
+    if (raw != null) {
+      raw.write(write);
+      return;
+    }
     if (serializer == null)
       throw new ArcNetException("ConnectionPacketWrapPacket.serializer is not set!");
     serializer.write(this, write);
   }
 
+  /** Writes the payload returned by {@link #preparePayload()}. */
+  protected void writePayload(ByteBufferOutput write, ByteBuffer payload) {
+    int start = write.buffer.position();
+    if (payload == null) {
+      writeObject(write);
+      payloadSize = write.buffer.position() - start;
+    } else {
+      if (compressed) write.writeShort(payloadSize);
+      write.buffer.put(payload);
+    }
+    wireSize = write.buffer.position() - start;
+  }
+
   
   public interface Serializer {
     void read(ConnectionPacketWrapPacket packet, ByteBufferInput read);
     void write(ConnectionPacketWrapPacket packet, ByteBufferOutput write);
+    /** @return whether reading must be delayed to the {@link Packet#handled()} call. */
+    default boolean isDelayed() { return true; }
   }
 }
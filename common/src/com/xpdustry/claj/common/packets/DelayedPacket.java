@@ -36,9 +36,15 @@ public abstract class DelayedPacket implements Packet {
     Threads.local(() -> new ByteBufferInput(ByteBuffer.wrap(NODATA)));
 
   private byte[] DATA = NODATA;
+  /** Index of this packet type, {@code -1} if not resolved yet. */
+  private int index = -1;
 
   @Override
   public final void read(ByteBufferInput read) {
+    if (!isDelayed()) {
+      readImpl(read);
+      return;
+    }
     DATA = new byte[read.buffer.remaining()];
     read.readFully(DATA);
   }
@@ -54,6 +60,22 @@ public abstract class DelayedPacket implements Packet {
     DATA = NODATA;
   }
 
+  /** @return whether reading must be delayed to the {@link #handled()} call, or done directly. */
+  protected boolean isDelayed() {
+    return true;
+  }
+
+  @Override
+  public int id() {
+    int i = index;
+    return i != -1 ? i : (index = Packet.super.id());
+  }
+
+  @Override
+  public void id(int id) {
+    index = id;
+  }
+
   protected abstract void readImpl(ByteBufferInput read);
   @Override
   public abstract void write(ByteBufferOutput write);
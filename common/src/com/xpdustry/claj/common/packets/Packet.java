@@ -23,6 +23,8 @@ import arc.net.Connection;
 import arc.util.io.ByteBufferInput;
 import arc.util.io.ByteBufferOutput;
 
+import com.xpdustry.claj.common.ClajNet;
+
 
 /** Base packet of CLaJ protocol. Packets should be handled in the same thread. */
 public interface Packet {
@@ -40,12 +42,26 @@ public interface Packet {
     return (T)this;
   }
 
+  /**
+   * @return the {@link ClajNet#indexOf(Class) index} of this packet type, used to dispatch it. <br>
+   * This looks up the index at each call, so packets should store the one {@link #id(int) given} at creation.
+   */
+  default int id() { return ClajNet.indexOf(getClass()); }
+  /** Gives the index of this packet type, when created by {@link ClajNet#newPacket(byte)}. */
+  default void id(int id) {}
+
   /** @return whether this packet should be allowed or ignored, for this type of endpoint. */
   default boolean allow(boolean isServer){ return true; }
 
   /** Called when handling the packet (after reading), in another thread. */
   default void handled() {}
 
+  /**
+   * Called before passing the packet to another thread.
+   * @return a packet that no longer depends on the network buffers. Can be itself.
+   */
+  default Packet detach() { return this; }
+
   /** Called when the client handle this packet. Only called when no listener is defined for this packet. */
   default void handleClient() {}
   /** Called when the server handle this packet. Only called when no listener is defined for this packet. */
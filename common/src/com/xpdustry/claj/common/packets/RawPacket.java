@@ -20,21 +20,72 @@
 package com.xpdustry.claj.common.packets;
 
 import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 import arc.util.io.ByteBufferInput;
 import arc.util.io.ByteBufferOutput;
 
+import com.xpdustry.claj.common.ClajNet;
+import com.xpdustry.claj.common.util.BufferPool;
+import com.xpdustry.claj.common.util.LeakDetector;
+
 
 /**
  * Wrapper for {@link ByteBuffer} that implements {@link Packet}. <br>
  * This is only needed due to compatibility with receivers.
+ * <p>
+ * Packets obtained with {@link #obtain(ByteBuffer)} are reference counted and their buffer is pooled.
+ * They must be {@link #release() released} once handled, and {@link #retain() retained} if kept for later.
+ * <p>
+ * Packets obtained with {@link #borrow(ByteBuffer)} are only a view of the network buffer,
+ * and are only valid during the receive call. {@link #retain()} will copy them in a pooled packet.
  */
 public class RawPacket implements Packet {
+  /** Reports pooled packets that was never released. */
+  public static final LeakDetector<RawPacket> leaks = new LeakDetector<>("RawPacket");
+  private static final AtomicIntegerFieldUpdater<RawPacket> REFS =
+    AtomicIntegerFieldUpdater.newUpdater(RawPacket.class, "refs");
+  /** Never registered, so indexed once as a local packet. */
+  private static final int INDEX = ClajNet.indexOf(RawPacket.class);
+
   public final ByteBuffer data;
+  /** Pool owning {@link #data}. {@code null} if not pooled. */
+  protected final BufferPool pool;
+  /** Whether {@link #data} is a view of a buffer owned by someone else. */
+  public final boolean borrowed;
+  protected final LeakDetector<RawPacket>.Tracker tracker;
+  protected volatile int refs = 1;
 
   public RawPacket(ByteBuffer buffer) {
     data = copyRemaining(buffer);
+    pool = null;
+    borrowed = false;
+    tracker = null;
+  }
+
+  protected RawPacket(ByteBuffer data, BufferPool pool, boolean borrowed) {
+    this.data = data;
+    this.pool = pool;
+    this.borrowed = borrowed;
+    tracker = pool == null ? null : leaks.track(this);
+  }
+
+  /** Copies the remaining bytes of {@code src} in a pooled buffer. */
+  public static RawPacket obtain(ByteBuffer src) { return obtain(src, BufferPool.shared); }
+  public static RawPacket obtain(ByteBuffer src, BufferPool pool) {
+    ByteBuffer data = pool.obtain(src.remaining());
+    data.put(src).flip();
+    return new RawPacket(data, pool, false);
   }
+  public static RawPacket obtain(ByteBufferInput in) { return obtain(in.buffer); }
+
+  /** Takes a view of the remaining bytes of {@code src}, without copying them. */
+  public static RawPacket borrow(ByteBuffer src) {
+    ByteBuffer data = src.slice();
+    src.position(src.limit());
+    return new RawPacket(data, null, true);
+  }
+  public static RawPacket borrow(ByteBufferInput in) { return borrow(in.buffer); }
 
   @Override
   public void read(ByteBufferInput read) {
@@ -47,6 +98,60 @@ public class RawPacket implements Packet {
     write(data, write);
   }
 
+  @Override
+  public int id() {
+    return INDEX;
+  }
+
+  /**
+   * Adds a reference to the packet. Must be paired with a {@link #release()}. <br>
+   * A {@link #borrowed} packet is copied instead, so always use the returned packet.
+   */
+  public RawPacket retain() {
+    if (borrowed) {
+      int pos = data.position();
+      RawPacket copy = obtain(data);
+      data.position(pos);
+      return copy;
+    }
+    if (REFS.getAndIncrement(this) <= 0) {
+      REFS.getAndDecrement(this);
+      throw new IllegalStateException("packet already released");
+    }
+    return this;
+  }
+
+  /**
+   * Removes a reference to the packet. The buffer is given back to the pool when no references remain.
+   * @return whether the packet has been freed.
+   */
+  public boolean release() {
+    if (borrowed) return false;
+    int count = REFS.decrementAndGet(this);
+    if (count > 0) return false;
+    if (count < 0) {
+      REFS.getAndIncrement(this);
+      throw new IllegalStateException("packet released too many times");
+    }
+    if (tracker != null) tracker.close();
+    if (pool != null) pool.free(data);
+    return true;
+  }
+
+  /** Copies the packet if {@link #borrowed}, else does nothing. */
+  @Override
+  public RawPacket detach() {
+    return borrowed ? retain() : this;
+  }
+
+  public int refCount() {
+    return refs;
+  }
+
+  public boolean isPooled() {
+    return pool != null;
+  }
+
   // Helpers
 
   public static ByteBuffer copyRemaining(ByteBufferInput in) { return copyRemaining(in.buffer); }
@@ -67,12 +172,8 @@ public class RawPacket implements Packet {
     if (src.hasArray()) {
       write.write(src.array(), src.arrayOffset() + src.position(), src.remaining());
     } else {
-      // Not safe to write buffer directly
-      int pos = src.position();
-      byte[] bytes = new byte[src.remaining()];
-      src.get(bytes);
-      src.position(pos);
-      write.write(bytes);
+      // Not safe to write buffer directly, but a duplicate avoids an intermediate copy
+      write.buffer.put(src.duplicate());
     }
   }
 }
\ No newline at end of file
@@ -22,9 +22,22 @@ package com.xpdustry.claj.common.packets;
 
 public class RoomClosureRequestPacket implements Packet {
   public static final RoomClosureRequestPacket instance = new RoomClosureRequestPacket();
+  /** Index of this packet type, {@code -1} if not resolved yet. */
+  private int index = -1;
   
   @Override
   public boolean allow(boolean isServer) { 
     return isServer; 
   }
+
+  @Override
+  public int id() {
+    int i = index;
+    return i != -1 ? i : (index = Packet.super.id());
+  }
+
+  @Override
+  public void id(int id) {
+    index = id;
+  }
 }
@@ -30,6 +30,13 @@ public class RoomCreationRequestPacket extends DelayedPacket {
   public int version = -1;
   /** Implementation type. */
   public ClajType type;
+  /** {@link com.xpdustry.claj.common.status.ClajFeature Features} supported by the host. */
+  public int features;
+  /**
+   * Id of a room to re-create, with the {@link RoomMigratePacket#token token} given by the previous relay,
+   * or to re-attach to, with the {@link RoomLinkPacket#resumeToken resume token}. {@code 0} for a new room.
+   */
+  public long roomId, token;
 
   //TODO: test this
   @Override
@@ -42,11 +49,19 @@ public class RoomCreationRequestPacket extends DelayedPacket {
       if (read.buffer.hasRemaining() && utflen == 0) {
         version = read.readInt();
         type = ClajType.read(read.buffer);
+        // Older versions doesn't send features
+        features = read.buffer.remaining() >= 4 ? read.readInt() : 0;
+        if (read.buffer.remaining() >= 16) {
+          roomId = read.readLong();
+          token = read.readLong();
+        } else roomId = token = 0;
         return;
       }
     }
     version = -1;
     type = null;
+    features = 0;
+    roomId = token = 0;
   }
 
   @Override
@@ -54,6 +69,10 @@ public class RoomCreationRequestPacket extends DelayedPacket {
     write.writeShort(0); //waste two bytes corresponding to utflen
     write.writeInt(version);
     type.write(write.buffer);
+    write.writeInt(features);
+    if (roomId == 0) return;
+    write.writeLong(roomId);
+    write.writeLong(token);
   }
     
   @Override
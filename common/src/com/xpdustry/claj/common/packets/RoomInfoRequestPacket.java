@@ -19,10 +19,31 @@
 
 package com.xpdustry.claj.common.packets;
 
+import arc.util.io.ByteBufferInput;
+import arc.util.io.ByteBufferOutput;
+
 
 public class RoomInfoRequestPacket extends RoomLinkPacket {
+  /** The client follows a {@link ServerRedirectPacket} to the node owning the room. */
+  public static final int FLAG_REDIRECT = 1;
+
+  /** Optional flags, appended for newer clients. Older servers ignore them. */
+  public int flags;
+
+  @Override
+  protected void readImpl(ByteBufferInput read) {
+    super.readImpl(read);
+    flags = read.buffer.hasRemaining() ? read.readUnsignedByte() : 0;
+  }
+
+  @Override
+  public void write(ByteBufferOutput write) {
+    super.write(write);
+    write.writeByte(flags);
+  }
+
   @Override
-  public boolean allow(boolean isServer) { 
-    return isServer; 
+  public boolean allow(boolean isServer) {
+    return isServer;
   }
 }
@@ -19,5 +19,27 @@
 
 package com.xpdustry.claj.common.packets;
 
+import arc.util.io.ByteBufferInput;
+import arc.util.io.ByteBufferOutput;
 
-public class RoomJoinAcceptedPacket extends RoomLinkPacket {}
+
+public class RoomJoinAcceptedPacket extends RoomLinkPacket {
+  /**
+   * Whether the connection has been added to the room, after a {@link RoomJoinRequestPacket#FLAG_HANDOFF handoff}
+   * request. Older servers ignore the flag, so the client must connect again if {@code false}.
+   */
+  public boolean handoff;
+
+  @Override
+  protected void readImpl(ByteBufferInput read) {
+    super.readImpl(read);
+    handoff = read.buffer.hasRemaining() && read.readBoolean();
+  }
+
+  @Override
+  public void write(ByteBufferOutput write) {
+    super.write(write);
+    // Only written when requested, older clients doesn't expect it
+    if (handoff) write.writeBoolean(true);
+  }
+}
@@ -19,17 +19,43 @@
 
 package com.xpdustry.claj.common.packets;
 
+import arc.util.io.ByteBufferInput;
+import arc.util.io.ByteBufferOutput;
+
 import com.xpdustry.claj.common.status.ClajType;
 
+
 /**
  * Only exists for compatibility with older versions. <br>
  * This packet is used to validate join request, so the connection will not be added to the room. <br>
  * {@link RoomJoinPacket} will be sent by the actual client connection and added to the room if all right. <br>
  * But no reply are sent, so no reason know what was wrong, if the provided values are invalid.
+ * <p>
+ * With the {@link #FLAG_HANDOFF handoff flag}, the connection is added to the room once accepted,
+ * so the client can use it as the game connection instead of opening a new one.
  */
 public class RoomJoinRequestPacket extends RoomJoinPacket {
-  /** Max packet size: roomId + withPassword + password + type */
-  public static final int SIZE = Long.BYTES + 1 + Short.BYTES + ClajType.SIZE;
+  /** Max packet size: roomId + withPassword + password + type + flags */
+  public static final int SIZE = Long.BYTES + 1 + Short.BYTES + 1 + ClajType.SIZE + 1;
+  /** The client follows a {@link ServerRedirectPacket} to the node owning the room. */
+  public static final int FLAG_REDIRECT = 1;
+  /** The connection joins the room after the {@link RoomJoinAcceptedPacket}, and becomes the client connection. */
+  public static final int FLAG_HANDOFF = 2;
+
+  /** Optional flags, appended for newer clients. Older servers ignore them. */
+  public int flags;
+
+  @Override
+  protected void readImpl(ByteBufferInput read) {
+    super.readImpl(read);
+    flags = read.buffer.hasRemaining() ? read.readUnsignedByte() : 0;
+  }
+
+  @Override
+  public void write(ByteBufferOutput write) {
+    super.write(write);
+    write.writeByte(flags);
+  }
 
   public RoomJoinPacket toJoinPacket() {
     RoomJoinPacket p = new RoomJoinPacket();
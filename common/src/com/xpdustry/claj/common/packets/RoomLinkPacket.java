@@ -26,15 +26,34 @@ import arc.util.io.ByteBufferOutput;
 public class RoomLinkPacket extends DelayedPacket {
   /** {@code 0} means no room. */
   public long roomId;
+  /** {@link com.xpdustry.claj.common.status.ClajFeature Features} enabled for the room. */
+  public int features;
+  /**
+   * Allows the host to re-attach to the room after losing its connection,
+   * when {@link com.xpdustry.claj.common.status.ClajFeature#resume} is enabled. {@code 0} if none.
+   */
+  public long resumeToken;
 
   @Override
   protected void readImpl(ByteBufferInput read) {
     roomId = read.readLong();
+    // Older servers doesn't send features
+    if (!hasFeatures()) return;
+    features = read.buffer.remaining() >= 4 ? read.readInt() : 0;
+    resumeToken = read.buffer.remaining() >= 8 ? read.readLong() : 0;
   }
 
   @Override
   public void write(ByteBufferOutput write) {
     write.writeLong(roomId);
+    if (!hasFeatures()) return;
+    write.writeInt(features);
+    write.writeLong(resumeToken);
+  }
+
+  /** Only the room link carries the features and the token, subclasses just reuse the room id. */
+  protected boolean hasFeatures() {
+    return getClass() == RoomLinkPacket.class;
   }
     
   @Override
@@ -0,0 +1,59 @@
+/**
+ * This file is part of CLaJ. The system that allows you to play with your friends,
+ * just by creating a room, copying the link and sending it to your friends.
+ * Copyright (c) 2025-2026  Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.xpdustry.claj.common.packets;
+
+import arc.util.io.ByteBufferInput;
+import arc.util.io.ByteBufferOutput;
+
+import com.xpdustry.claj.common.util.Strings;
+
+
+/**
+ * Asks the host to move its room to another relay, because the server is draining. <br>
+ * The host re-creates the room on the target, with the same id, by giving the token in its
+ * {@link RoomCreationRequestPacket creation request}. The current room is closed when the host leaves.
+ * <p>
+ * Only sent if the host advertised the {@link com.xpdustry.claj.common.status.ClajFeature#migrate} feature.
+ */
+public class RoomMigratePacket extends DelayedPacket {
+  public String host;
+  public int port;
+  /** Allows to re-create the room on the target. */
+  public long token;
+
+  @Override
+  protected void readImpl(ByteBufferInput read) {
+    host = Strings.truncate(Strings.readUTF(read), 255);
+    port = read.readUnsignedShort();
+    token = read.readLong();
+  }
+
+  @Override
+  public void write(ByteBufferOutput write) {
+    Strings.writeUTF(write, Strings.truncate(host, 255));
+    write.writeShort(port);
+    write.writeLong(token);
+  }
+
+  @Override
+  public boolean allow(boolean isServer) {
+    return !isServer;
+  }
+}
@@ -25,8 +25,14 @@ import arc.util.io.ByteBufferOutput;
 
 public class ServerInfoPacket extends DelayedPacket {
   public int version = -1;
-  //TODO: add current server load: number of rooms, max rooms (if any), 
-  //      number of clients, max allowed clients per room, maybe an health status?
+  /** Whether the server sent its load figures. Older servers only send their version. */
+  public boolean hasLoad;
+  /** Number of rooms and connections, and their limits. A limit of {@code 0} means no limit. */
+  public int rooms, maxRooms, connections, maxConnections;
+  /** Egress of the server, and its link capacity. A capacity of {@code 0} means not limited. (in KiB/s) */
+  public int egress, capacity;
+  /** Cluster node id of the server, {@code 0} if not clustered. */
+  public int node;
 
   @Override
   protected void readImpl(ByteBufferInput read) {
@@ -34,15 +40,45 @@ public class ServerInfoPacket extends DelayedPacket {
     // This can be used to determine whether this is an old CLaJ server or not.
     // Because on older versions, no discovery was configured.
     version = read.buffer.hasRemaining() ? read.readInt() : -1;
+    hasLoad = read.buffer.remaining() >= 24;
+    if (!hasLoad) return;
+    rooms = read.readInt();
+    maxRooms = read.readInt();
+    connections = read.readInt();
+    maxConnections = read.readInt();
+    egress = read.readInt();
+    capacity = read.readInt();
+    node = read.buffer.remaining() >= 4 ? read.readInt() : 0;
   }
 
   @Override
   public void write(ByteBufferOutput write) {
     write.writeInt(version);
+    if (!hasLoad) return;
+    write.writeInt(rooms);
+    write.writeInt(maxRooms);
+    write.writeInt(connections);
+    write.writeInt(maxConnections);
+    write.writeInt(egress);
+    write.writeInt(capacity);
+    write.writeInt(node);
   }
-    
+
+  /**
+   * @return the highest usage of the server limits, {@code 1} or more means full.
+   *         {@code 0} if the server has no limits or sent no load figures.
+   */
+  public float load() {
+    if (!hasLoad) return 0;
+    float load = 0;
+    if (maxRooms > 0) load = Math.max(load, (float)rooms / maxRooms);
+    if (maxConnections > 0) load = Math.max(load, (float)connections / maxConnections);
+    if (capacity > 0) load = Math.max(load, (float)egress / capacity);
+    return load;
+  }
+
   @Override
-  public boolean allow(boolean isServer) { 
-    return !isServer; 
+  public boolean allow(boolean isServer) {
+    return !isServer;
   }
 }
@@ -0,0 +1,57 @@
+/**
+ * This file is part of CLaJ. The system that allows you to play with your friends,
+ * just by creating a room, copying the link and sending it to your friends.
+ * Copyright (c) 2025-2026  Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.xpdustry.claj.common.packets;
+
+import arc.util.io.ByteBufferInput;
+import arc.util.io.ByteBufferOutput;
+
+import com.xpdustry.claj.common.util.Strings;
+
+
+/**
+ * Gives the address of another relay to use, the server closes the connection after. <br>
+ * Answers a room creation request when the server is full, or a join or info request for a room of
+ * another cluster node.
+ * <p>
+ * Only sent if the client advertised it follows redirections,
+ * with the {@link com.xpdustry.claj.common.status.ClajFeature#redirect} feature for a room creation,
+ * or with the {@link RoomJoinRequestPacket#FLAG_REDIRECT redirect flag} for a request.
+ */
+public class ServerRedirectPacket extends DelayedPacket {
+  public String host;
+  public int port;
+
+  @Override
+  protected void readImpl(ByteBufferInput read) {
+    host = Strings.truncate(Strings.readUTF(read), 255);
+    port = read.readUnsignedShort();
+  }
+
+  @Override
+  public void write(ByteBufferOutput write) {
+    Strings.writeUTF(write, Strings.truncate(host, 255));
+    write.writeShort(port);
+  }
+
+  @Override
+  public boolean allow(boolean isServer) {
+    return !isServer;
+  }
+}
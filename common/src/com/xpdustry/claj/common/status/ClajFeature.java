@@ -0,0 +1,71 @@
+/**
+ * This file is part of CLaJ. The system that allows you to play with your friends,
+ * just by creating a room, copying the link and sending it to your friends.
+ * Copyright (c) 2025-2026  Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.xpdustry.claj.common.status;
+
+
+/**
+ * Optional protocol features, negotiated at room creation. <br>
+ * The host advertises the features it supports, and the server replies with the ones enabled for the room.
+ * So a feature must never be used if not enabled, as older servers and hosts doesn't know them.
+ * <p>
+ * <b>New features must be added at the end</b>, the ordinal is used as bit index.
+ */
+public enum ClajFeature {
+  /** The host can send one packet to multiple connections of the room. */
+  multicast,
+  /** Small wrapped packets can be grouped in one frame, in both directions. */
+  batch,
+  /** Wrapped packets can use the compact framing, with room-local slots instead of connection ids. */
+  compactWrap,
+  /** Wrapped payloads can be compressed, in both directions. Each side chooses whether it compresses. */
+  compression,
+  /** The host can offer blobs by content hash, the server caches them for the room. */
+  blobCache,
+  /** The server notifies the host when a connection is congested, so it can stop sending unreliable packets. */
+  congestion,
+  /** The host follows the server to another relay, when the server is full at room creation. */
+  redirect,
+  /** The host moves its room to another relay when the server is draining, keeping the room id. */
+  migrate,
+  /** The host can re-attach to its room after losing its connection, the room is kept for a grace period. */
+  resume,
+  /** The server notifies idle connections of the room in one packet per interval, instead of one per event. */
+  idleSet,
+  /** The server periodically gives the host the return trip time it measured for each connection of the room. */
+  latency;
+
+  public static final ClajFeature[] all = values();
+
+  public int mask() {
+    return 1 << ordinal();
+  }
+
+  /** @return whether this feature is present in the flags. */
+  public boolean in(int flags) {
+    return (flags & mask()) != 0;
+  }
+
+  /** @return the flags of the specified features. */
+  public static int of(ClajFeature... features) {
+    int flags = 0;
+    for (ClajFeature feature : features) flags |= feature.mask();
+    return flags;
+  }
+}
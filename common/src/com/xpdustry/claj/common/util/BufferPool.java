@@ -0,0 +1,137 @@
+/**
+ * This file is part of CLaJ. The system that allows you to play with your friends,
+ * just by creating a room, copying the link and sending it to your friends.
+ * Copyright (c) 2026  Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.xpdustry.claj.common.util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Thread-safe pool of heap {@link ByteBuffer}s, grouped by size classes of powers of two. <br>
+ * Buffers bigger than the biggest class are not pooled.
+ */
+public class BufferPool {
+  /** Default pool used for relayed packets. */
+  public static final BufferPool shared = new BufferPool(6, 15, 1024);
+
+  protected final int minShift, maxShift, maxPerClass;
+  protected final ByteBuffer[][] classes;
+  protected final int[] sizes;
+  protected final LongAdder obtained = new LongAdder(), created = new LongAdder(), released = new LongAdder();
+
+  /**
+   * @param minShift log2 of the smallest size class.
+   * @param maxShift log2 of the biggest size class.
+   * @param maxPerClass maximum number of free buffers kept per size class.
+   */
+  public BufferPool(int minShift, int maxShift, int maxPerClass) {
+    if (minShift < 0 || maxShift < minShift || maxShift > 30) throw new IllegalArgumentException("invalid size classes");
+    this.minShift = minShift;
+    this.maxShift = maxShift;
+    this.maxPerClass = maxPerClass;
+    classes = new ByteBuffer[maxShift - minShift + 1][maxPerClass];
+    sizes = new int[classes.length];
+  }
+
+  /** @return the index of the size class for the specified capacity, or {@code -1} if too big. */
+  public int classOf(int capacity) {
+    if (capacity <= 1 << minShift) return 0;
+    int shift = 32 - Integer.numberOfLeadingZeros(capacity - 1);
+    return shift > maxShift ? -1 : shift - minShift;
+  }
+
+  /** @return a cleared buffer with at least the specified capacity. */
+  public ByteBuffer obtain(int capacity) {
+    obtained.increment();
+    int index = classOf(capacity);
+    if (index == -1) {
+      created.increment();
+      return ByteBuffer.allocate(capacity);
+    }
+
+    ByteBuffer[] stack = classes[index];
+    synchronized (stack) {
+      int size = sizes[index];
+      if (size > 0) {
+        ByteBuffer buffer = stack[--size];
+        stack[size] = null;
+        sizes[index] = size;
+        return (ByteBuffer)buffer.clear();
+      }
+    }
+    created.increment();
+    return ByteBuffer.allocate(1 << (index + minShift));
+  }
+
+  /** Gives back a buffer obtained by {@link #obtain(int)}. The buffer must not be used anymore after. */
+  public void free(ByteBuffer buffer) {
+    if (buffer == null) return;
+    released.increment();
+    int capacity = buffer.capacity();
+    int index = classOf(capacity);
+    // Ignore buffers not created by the pool
+    if (index == -1 || capacity != 1 << (index + minShift) || !buffer.hasArray()) return;
+
+    ByteBuffer[] stack = classes[index];
+    synchronized (stack) {
+      int size = sizes[index];
+      if (size < maxPerClass) {
+        stack[size] = buffer;
+        sizes[index] = size + 1;
+      }
+    }
+  }
+
+  /** Drops all free buffers. */
+  public void clear() {
+    for (int i=0; i<classes.length; i++) {
+      ByteBuffer[] stack = classes[i];
+      synchronized (stack) {
+        Arrays.fill(stack, null);
+        sizes[i] = 0;
+      }
+    }
+  }
+
+  /** @return the number of buffers obtained. */
+  public long obtained() {
+    return obtained.sum();
+  }
+
+  /** @return the number of buffers allocated because none was free. */
+  public long created() {
+    return created.sum();
+  }
+
+  /** @return the number of buffers given back. */
+  public long released() {
+    return released.sum();
+  }
+
+  /** @return the total capacity of free buffers kept by the pool. (in bytes) */
+  public long freeBytes() {
+    long total = 0;
+    for (int i=0; i<classes.length; i++) {
+      synchronized (classes[i]) { total += (long)sizes[i] << (i + minShift); }
+    }
+    return total;
+  }
+}
@@ -0,0 +1,161 @@
+/**
+ * This file is part of CLaJ. The system that allows you to play with your friends,
+ * just by creating a room, copying the link and sending it to your friends.
+ * Copyright (c) 2025-2026  Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.xpdustry.claj.common.util;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import arc.net.ArcNetException;
+import arc.util.Threads;
+import arc.util.io.ByteBufferInput;
+import arc.util.io.ByteBufferOutput;
+
+
+/**
+ * Raw deflate compression of packet payloads, using thread-local codecs and buffers. <br>
+ * Returned buffers are thread-local, so they are only valid until the next call in the same thread.
+ */
+public class Compression {
+  /** Maximum size of a payload that can be compressed. */
+  public static final int MAX_SIZE = 0xffff;
+
+  private static final ThreadLocal<Deflater[]> deflaters = Threads.local(() -> new Deflater[Level.all.length]);
+  private static final ThreadLocal<Inflater> inflater = Threads.local(() -> new Inflater(true));
+  private static final ThreadLocal<ByteBuffer> sources = Threads.local(() -> ByteBuffer.allocate(MAX_SIZE));
+  private static final ThreadLocal<ByteBuffer> deflated = Threads.local(() -> ByteBuffer.allocate(MAX_SIZE));
+  private static final ThreadLocal<ByteBuffer> inflated = Threads.local(() -> ByteBuffer.allocate(MAX_SIZE));
+  private static final ThreadLocal<byte[]> arrays = Threads.local(() -> new byte[MAX_SIZE]);
+  private static final ThreadLocal<ByteBufferOutput> outputs = Threads.local(ByteBufferOutput::new);
+  private static final ThreadLocal<ByteBufferInput> inputs = Threads.local(ByteBufferInput::new);
+
+  public enum Level {
+    /** No compression. */
+    none(Deflater.NO_COMPRESSION),
+    /** Fastest deflate level, for a low CPU cost. */
+    fast(Deflater.BEST_SPEED),
+    /** Default deflate level, better ratio but slower. */
+    deflate(Deflater.DEFAULT_COMPRESSION);
+
+    public static final Level[] all = values();
+
+    public final int level;
+
+    Level(int level) {
+      this.level = level;
+    }
+
+    /** @return the level with the specified name, or {@code null} if not found. */
+    public static Level get(String name) {
+      for (Level level : all) {
+        if (level.name().equalsIgnoreCase(name)) return level;
+      }
+      return null;
+    }
+  }
+
+  /** @return a cleared thread-local buffer to serialize a payload before compressing it. */
+  public static ByteBuffer source() {
+    return (ByteBuffer)sources.get().clear();
+  }
+
+  /** @return a thread-local output writing in the buffer. */
+  public static ByteBufferOutput output(ByteBuffer buffer) {
+    ByteBufferOutput out = outputs.get();
+    out.buffer = buffer;
+    return out;
+  }
+
+  /** @return a thread-local input reading the buffer. */
+  public static ByteBufferInput input(ByteBuffer buffer) {
+    ByteBufferInput in = inputs.get();
+    in.buffer = buffer;
+    return in;
+  }
+
+  /**
+   * Compresses the remaining bytes of {@code src}, without consuming them.
+   * @return the compressed data, or {@code null} if not smaller.
+   */
+  public static ByteBuffer deflate(ByteBuffer src, Level level) {
+    if (level == Level.none || src.remaining() > MAX_SIZE) return null;
+    Deflater[] cache = deflaters.get();
+    Deflater deflater = cache[level.ordinal()];
+    if (deflater == null) deflater = cache[level.ordinal()] = new Deflater(level.level, true);
+
+    byte[] input;
+    int offset, length = src.remaining();
+    if (src.hasArray()) {
+      input = src.array();
+      offset = src.arrayOffset() + src.position();
+    } else {
+      input = arrays.get();
+      offset = 0;
+      src.duplicate().get(input, 0, length);
+    }
+
+    ByteBuffer dst = deflated.get();
+    deflater.reset();
+    deflater.setInput(input, offset, length);
+    deflater.finish();
+    // Only keep it if smaller
+    int size = deflater.deflate(dst.array(), 0, length - 1);
+    boolean finished = deflater.finished();
+    deflater.reset();
+    if (!finished) return null;
+    dst.position(0);
+    dst.limit(size);
+    return dst;
+  }
+
+  /**
+   * Decompresses {@code length} bytes from the remaining bytes of {@code src}, which are consumed.
+   * @throws ArcNetException if the data is invalid.
+   */
+  public static ByteBuffer inflate(ByteBuffer src, int length) {
+    if (length > MAX_SIZE) throw new ArcNetException("Compressed payload too big: " + length);
+    byte[] input;
+    int offset, size = src.remaining();
+    if (src.hasArray()) {
+      input = src.array();
+      offset = src.arrayOffset() + src.position();
+    } else {
+      input = arrays.get();
+      offset = 0;
+      src.duplicate().get(input, 0, size);
+    }
+    src.position(src.limit());
+
+    Inflater inflater = Compression.inflater.get();
+    ByteBuffer dst = inflated.get();
+    try {
+      inflater.reset();
+      inflater.setInput(input, offset, size);
+      int read = inflater.inflate(dst.array(), 0, length);
+      if (read != length || !inflater.finished()) throw new ArcNetException("Invalid compressed payload");
+    } catch (DataFormatException e) {
+      throw new ArcNetException("Invalid compressed payload", e);
+    } finally { inflater.reset(); }
+    dst.position(0);
+    dst.limit(length);
+    return dst;
+  }
+}
@@ -0,0 +1,96 @@
+/**
+ * This file is part of CLaJ. The system that allows you to play with your friends,
+ * just by creating a room, copying the link and sending it to your friends.
+ * Copyright (c) 2026  Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.xpdustry.claj.common.util;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import arc.util.Log;
+
+
+/**
+ * Debugging tool that reports tracked objects collected by the garbage collector without being closed. <br>
+ * Tracking is costly (a stack trace per object), so it's disabled by default.
+ */
+public class LeakDetector<T> {
+  public final String name;
+  public volatile boolean enabled;
+  protected final ReferenceQueue<T> queue = new ReferenceQueue<>();
+  /** Keeps trackers reachable until they are closed or reported. */
+  protected final Set<Tracker> trackers = ConcurrentHashMap.newKeySet();
+  protected final LongAdder leaks = new LongAdder();
+
+  public LeakDetector(String name) {
+    this.name = name;
+  }
+
+  /**
+   * Starts tracking an object. {@link Tracker#close()} must be called once the object is released.
+   * @return {@code null} if the detector is disabled.
+   */
+  public Tracker track(T object) {
+    if (!enabled) return null;
+    poll();
+    Tracker tracker = new Tracker(object);
+    trackers.add(tracker);
+    return tracker;
+  }
+
+  /** Reports leaked objects, if any. Called at each {@link #track(Object)}. */
+  public void poll() {
+    Reference<? extends T> ref;
+    while ((ref = queue.poll()) != null) {
+      if (!trackers.remove(ref)) continue;
+      leaks.increment();
+      Log.err("LEAK: " + name + " was garbage collected without being released. Allocated at:",
+              ((Tracker)ref).trace);
+    }
+  }
+
+  /** @return the number of reported leaks. */
+  public long leaks() {
+    return leaks.sum();
+  }
+
+  /** @return the number of objects currently tracked. */
+  public int tracked() {
+    return trackers.size();
+  }
+
+
+  public class Tracker extends WeakReference<T> {
+    protected final Throwable trace;
+
+    protected Tracker(T referent) {
+      super(referent, queue);
+      trace = new Throwable(name + " allocation");
+    }
+
+    /** Stops tracking the object. */
+    public void close() {
+      clear();
+      trackers.remove(this);
+    }
+  }
+}
@@ -27,6 +27,14 @@ import arc.util.Reflect;
 
 
 public class Structs extends arc.util.Structs {
+  /** @return whether the value is in the first {@code size} elements of the array. */
+  public static boolean contains(int[] array, int size, int value) {
+    for (int i=0; i<size; i++) {
+      if (array[i] == value) return true;
+    }
+    return false;
+  }
+
   public static <T> T[] insert(T[] array, int index, T item) {
     T[] next = Reflect.newArray(array, array.length + 1);
     if (index > 0) System.arraycopy(array, 0, next, 0, index);
@@ -0,0 +1,96 @@
+/**
+ * This file is part of CLaJ. The system that allows you to play with your friends,
+ * just by creating a room, copying the link and sending it to your friends.
+ * Copyright (c) 2025-2026  Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.xpdustry.claj.server;
+
+import com.xpdustry.claj.server.util.NetworkSpeed;
+
+
+/**
+ * Admission control of new rooms and joins, according to the live egress of the server and the link capacity.
+ * <p>
+ * A new room is expected to cost the average egress of a room, and a join the average egress of a client
+ * of the room. If the projected egress is above the high threshold, the node is saturated: new rooms and joins
+ * are rejected until the live egress goes back under the low threshold, so it does not flap.
+ * <p>
+ * Only used by the main thread.
+ */
+public class AdmissionControl {
+  protected final NetworkSpeed speed;
+  protected boolean saturated;
+  protected long rejected;
+
+  /** @param speed the egress speed, sets to {@code null} to disable admission control. */
+  public AdmissionControl(NetworkSpeed speed) {
+    this.speed = speed;
+  }
+
+  public boolean isEnabled() {
+    return speed != null && ClajConfig.linkCapacity.get() > 0;
+  }
+
+  /** @return the link capacity. (in bytes per second) */
+  public long capacity() {
+    return Math.max(0, ClajConfig.linkCapacity.get() * 1024L);
+  }
+
+  /** @return the live egress of the server. (in bytes per second) */
+  public float egress() {
+    return speed == null ? 0 : speed.uploadSpeed();
+  }
+
+  /** @return whether the node is saturated, after updating the state with the live egress. */
+  public boolean isSaturated() {
+    if (!isEnabled()) return saturated = false;
+    float egress = egress();
+    if (saturated) saturated = egress >= threshold(ClajConfig.admissionLow.get());
+    else saturated = egress >= threshold(ClajConfig.admissionHigh.get());
+    return saturated;
+  }
+
+  /** @return the number of rejected rooms and joins. */
+  public long rejected() {
+    return rejected;
+  }
+
+  /** @param rooms the number of rooms of the server. */
+  public boolean allowRoom(int rooms) {
+    if (!isEnabled()) return true;
+    return allow(rooms > 0 ? egress() / rooms : 0);
+  }
+
+  public boolean allowJoin(ClajRoom room) {
+    if (!isEnabled()) return true;
+    // The host is also a receiver
+    return allow(room.relayRate() / (room.clients.size + 1));
+  }
+
+  /** @param cost projected egress of the admission. (in bytes per second) */
+  protected boolean allow(float cost) {
+    if (!isSaturated() && egress() + cost < threshold(ClajConfig.admissionHigh.get())) return true;
+    saturated = true;
+    rejected++;
+    return false;
+  }
+
+  /** @param percent of the link capacity. */
+  protected float threshold(int percent) {
+    return capacity() * Math.max(0, percent) / 100f;
+  }
+}
@@ -0,0 +1,153 @@
+/**
+ * This file is part of CLaJ. The system that allows you to play with your friends,
+ * just by creating a room, copying the link and sending it to your friends.
+ * Copyright (c) 2025-2026  Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.xpdustry.claj.server;
+
+import java.nio.ByteBuffer;
+
+import arc.net.DcReason;
+import arc.struct.Queue;
+
+import com.xpdustry.claj.common.packets.RawPacket;
+import com.xpdustry.claj.server.BlobStore.Blob;
+
+
+/**
+ * Sends blobs to a client, paced by its write buffer, and defers the packets of the host sent after them. <br>
+ * Blobs are sent by the main thread, when the client is idle. Packets can be deferred by any thread.
+ */
+public class BlobDelivery {
+  /** Write buffer size above which the blob waits for the client to be idle. (in bytes) */
+  public static int writeThreshold = 16384;
+  /** Maximum size of deferred packets, the client is disconnected above. (in bytes) */
+  public static int maxDeferred = 1 << 20;
+
+  public final ClajConnection connection;
+  /** {@link Blob}s and {@link Deferred} packets, in order. Guarded by this. */
+  protected final Queue<Object> items = new Queue<>();
+  /** Position in the blob being sent. */
+  protected int position;
+  protected int deferredBytes;
+  protected boolean finished;
+
+  public BlobDelivery(ClajConnection connection) {
+    this.connection = connection;
+  }
+
+  /** Queues a blob after the pending items. Must be called by the main thread. */
+  public synchronized void add(Blob blob) {
+    if (!finished) items.addLast(blob);
+  }
+
+  /**
+   * Queues a packet of the host, to be sent after the pending blobs.
+   * @return {@code false} if the delivery is finished, so the packet must be sent directly.
+   */
+  public synchronized boolean defer(RawPacket raw, boolean tcp) {
+    if (finished) return false;
+    int size = raw.data.remaining();
+    if (deferredBytes + size > maxDeferred) {
+      connection.close(DcReason.error);
+      return true;
+    }
+    deferredBytes += size;
+    items.addLast(new Deferred(raw.retain(), tcp));
+    return true;
+  }
+
+  /**
+   * Sends the pending items, until a blob is not uploaded yet or the client is not idle. <br>
+   * Must be called by the main thread.
+   * @return whether the delivery is finished.
+   */
+  public synchronized boolean pump() {
+    while (!finished) {
+      if (!connection.isConnected()) {
+        clear();
+        break;
+      } else if (items.isEmpty()) {
+        finish();
+        break;
+      }
+
+      Object item = items.first();
+      if (item instanceof Deferred deferred) {
+        items.removeFirst();
+        deferredBytes -= deferred.raw.data.remaining();
+        try { connection.send(deferred.raw, deferred.tcp); }
+        finally { deferred.raw.release(); }
+        continue;
+      }
+
+      Blob blob = (Blob)item;
+      if (!blob.isReady() && !blob.isFailed()) {
+        blob.await(this);
+        return false;
+      } else if (blob.isReady() && !sendBlob(blob.data())) return false;
+      items.removeFirst();
+      position = 0;
+    }
+    return true;
+  }
+
+  /** @return whether the blob was fully sent. */
+  protected boolean sendBlob(ByteBuffer data) {
+    int limit = data.limit();
+    while (position + 2 <= limit) {
+      if (connection.connection.getTcpWriteBufferSize() > writeThreshold) return false;
+      int end = position + 2 + data.getChar(position);
+      if (end > limit) break; // malformed, ignore the rest
+      data.limit(end);
+      data.position(position + 2);
+      connection.send(RawPacket.borrow(data), true);
+      data.limit(limit);
+      position = end;
+    }
+    return true;
+  }
+
+  /** Drops the pending items. Must be called by the main thread. */
+  public synchronized void clear() {
+    while (!items.isEmpty()) {
+      if (items.removeFirst() instanceof Deferred deferred) deferred.raw.release();
+    }
+    deferredBytes = 0;
+    finish();
+  }
+
+  protected void finish() {
+    finished = true;
+    if (connection.delivery == this) connection.delivery = null;
+  }
+
+  public synchronized boolean isFinished() {
+    return finished;
+  }
+
+
+  protected static class Deferred {
+    public final RawPacket raw;
+    public final boolean tcp;
+
+    public Deferred(RawPacket raw, boolean tcp) {
+      this.raw = raw;
+      this.tcp = tcp;
+    }
+  }
+}
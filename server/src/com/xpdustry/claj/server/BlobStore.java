@@ -0,0 +1,189 @@
+/**
+ * This file is part of CLaJ. The system that allows you to play with your friends,
+ * just by creating a room, copying the link and sending it to your friends.
+ * Copyright (c) 2025-2026  Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.xpdustry.claj.server;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import arc.struct.Seq;
+
+import com.xpdustry.claj.common.packets.BlobOfferPacket;
+
+
+/**
+ * Blobs of a room, by content hash, evicted in least recently used order when over {@link #maxBytes}. <br>
+ * The size of all stores is also limited by {@link #totalLimit}.
+ * <p>
+ * Only used by the main thread.
+ */
+public class BlobStore {
+  /** Total size of blobs of all stores. (in bytes) */
+  protected static long totalBytes;
+  /** Maximum size of blobs of all stores. (in bytes) */
+  public static long totalLimit = Long.MAX_VALUE;
+
+  protected final LinkedHashMap<Long, Blob> blobs = new LinkedHashMap<>(16, 0.75f, true);
+  /** Maximum size of blobs of this store. (in bytes) */
+  public long maxBytes;
+  protected long bytes;
+
+  public BlobStore(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /** @return the blob, or {@code null} if not stored. Marks it as recently used. */
+  public Blob get(long hash) {
+    return blobs.get(hash);
+  }
+
+  /**
+   * Stores a complete blob, evicting the least recently used ones if needed.
+   * @return whether the blob was stored. Can fail if too big.
+   */
+  public boolean put(Blob blob) {
+    if (!blob.isReady()) throw new IllegalArgumentException("blob is not complete");
+    int size = blob.size;
+    if (size > maxBytes) return false;
+    remove(blob.hash);
+
+    Iterator<Blob> it = blobs.values().iterator();
+    while (it.hasNext() && (bytes + size > maxBytes || totalBytes + size > totalLimit)) {
+      Blob old = it.next();
+      it.remove();
+      bytes -= old.size;
+      totalBytes -= old.size;
+    }
+    if (bytes + size > maxBytes || totalBytes + size > totalLimit) return false;
+
+    blobs.put(blob.hash, blob);
+    bytes += size;
+    totalBytes += size;
+    return true;
+  }
+
+  public boolean remove(long hash) {
+    Blob blob = blobs.remove(hash);
+    if (blob == null) return false;
+    bytes -= blob.size;
+    totalBytes -= blob.size;
+    return true;
+  }
+
+  public void clear() {
+    totalBytes -= bytes;
+    bytes = 0;
+    blobs.clear();
+  }
+
+  public int size() {
+    return blobs.size();
+  }
+
+  /** @return the size of blobs of this store. (in bytes) */
+  public long bytes() {
+    return bytes;
+  }
+
+  /** @return the size of blobs of all stores. (in bytes) */
+  public static long totalBytes() {
+    return totalBytes;
+  }
+
+
+  /** A blob, being uploaded by the host or complete. */
+  public static class Blob {
+    public final long hash;
+    public final int size;
+    /** Data of the blob, filled while uploading. Must not be modified once complete. */
+    protected final ByteBuffer data;
+    /** Deliveries waiting for the upload. Cleared once complete. */
+    protected final Seq<BlobDelivery> waiting = new Seq<>(false, 2, BlobDelivery.class);
+    protected volatile boolean ready, failed, verified;
+
+    public Blob(long hash, int size) {
+      this.hash = hash;
+      this.size = size;
+      data = ByteBuffer.allocate(size);
+    }
+
+    /** @return whether the blob is complete. */
+    public boolean isReady() {
+      return ready;
+    }
+
+    /** @return whether the upload failed, so the blob will never be complete. */
+    public boolean isFailed() {
+      return failed;
+    }
+
+    /** @return a view of the complete data. */
+    public ByteBuffer data() {
+      if (!ready) throw new IllegalStateException("blob is not complete");
+      ByteBuffer view = data.duplicate();
+      view.position(0);
+      view.limit(size);
+      return view;
+    }
+
+    /** @return whether the hash of the complete data matched. Unverified blobs are not stored. */
+    public boolean isVerified() {
+      return verified;
+    }
+
+    /**
+     * Appends a part of the uploaded blob.
+     * @return whether the blob is now complete, or failed.
+     */
+    public boolean append(ByteBuffer part) {
+      if (ready || failed) return true;
+      if (part.remaining() > data.remaining()) {
+        fail();
+        return true;
+      }
+      data.put(part);
+      if (data.hasRemaining()) return false;
+      data.flip();
+      verified = BlobOfferPacket.hash(data) == hash;
+      ready = true;
+      wake();
+      return true;
+    }
+
+    /** Marks the upload as failed, waiting deliveries will skip the blob. */
+    public void fail() {
+      if (ready || failed) return;
+      failed = true;
+      wake();
+    }
+
+    /** Resumes the delivery once the blob is complete. */
+    protected void await(BlobDelivery delivery) {
+      if (ready || failed) delivery.pump();
+      else if (!waiting.contains(delivery, true)) waiting.add(delivery);
+    }
+
+    protected void wake() {
+      BlobDelivery[] items = waiting.toArray();
+      waiting.clear();
+      for (BlobDelivery delivery : items) delivery.pump();
+    }
+  }
+}
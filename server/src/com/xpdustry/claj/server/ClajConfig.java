@@ -29,6 +29,7 @@ import arc.util.Log;
 import arc.util.Structs;
 import arc.util.serialization.*;
 
+import com.xpdustry.claj.common.packets.RawPacket;
 import com.xpdustry.claj.common.status.ClajType;
 import com.xpdustry.claj.common.util.Strings;
 import com.xpdustry.claj.server.util.Autosaver;
@@ -276,7 +277,7 @@ public class ClajConfig {
 
 
   private static Seq<String> fieldDescs = Seq.with(
-      "Toggle debug log level",
+      "Toggle debug log level and leak detection of pooled packets.",
       "Maximum number of connections (not clients) allowed on this server. Set to &lb0&lw to disable.",
       "Maximum number of rooms that can be created on this server. Set to &lb0&lw to disable.",
       """
@@ -346,11 +347,112 @@ public class ClajConfig {
       Here, AFK means that no CLaJ clients has joined the room for a long time.
       Even if, in reality, there are connected clients, but with another way than CLaJ.
       Set to &lb0&lw to disable.
-      """.trim()
+      """.trim(),
+      """
+      Forward relayed packets directly from the network thread, instead of passing them to the main thread.
+      Only room management packets will still be handled by the main thread.
+      """.trim(),
+      """
+      Number of threads forwarding relayed packets, rooms are distributed between them.
+      Set to &lb0&lw to use the number of CPU cores, or &lb1&lw to forward on the network thread.
+      Needs a server restart and 'fast-forward' to be enabled.
+      """.trim(),
+      """
+      Compression of the packets sent to room hosts supporting it. Can be &lbnone&lw, &lbfast&lw or &lbdeflate&lw.
+      &lbfast&lw costs less CPU, &lbdeflate&lw saves more bandwidth. Hosts choose their own compression.
+      """.trim(),
+      "Minimum size of a packet to be compressed. (in bytes)",
+      """
+      Size of the blob cache of each room, for hosts offering blobs of packets to send. (in KiB)
+      Set to &lb0&lw to disable.
+      """.trim(),
+      "Total size of the blob caches of all rooms. (in MiB)",
+      """
+      Size of the write buffer of a client above which it's congested. (in bytes)
+      Relayed reliable packets are then queued, and only the latest unreliable ones are kept.
+      """.trim(),
+      "Size of the write buffer of a congested client under which its congestion ends. (in bytes)",
+      "Maximum size of the queued reliable packets of a congested client, before disconnecting it. (in KiB)",
+      """
+      Number of the latest unreliable packets kept for a congested client, the oldest are dropped.
+      Set to &lb0&lw to drop all of them.
+      """.trim(),
+      """
+      Egress capacity of the server, shared between rooms with a weighted fair queuing. (in KiB/s)
+      Set to &lb0&lw to disable the scheduling.
+      """.trim(),
+      "Weight of new rooms in the egress scheduling. A room of weight 2 gets twice the bandwidth of a room of weight 1.",
+      """
+      Sustained rate of relayed data an IP address can send, for all its connections. (in KiB/s)
+      Multicast packets count once per target. Set to &lb0&lw to disable the quota.
+      """.trim(),
+      "Amount of relayed data an IP address can send at once, above its sustained rate. (in KiB)",
+      """
+      Sustained rate of relayed data a room can receive, from the host and clients. (in KiB/s)
+      Multicast packets count once per target. Set to &lb0&lw to disable the quota.
+      """.trim(),
+      "Amount of relayed data a room can receive at once, above its sustained rate. (in KiB)",
+      """
+      Maximum time packets over the byte quotas are delayed, before being dropped. (in ms)
+      Set to &lb0&lw to drop them directly.
+      """.trim(),
+      """
+      Number of packets dropped by the byte quotas in 3 seconds, before kicking the connection.
+      The room is closed if it was the host. Set to &lb0&lw to never kick.
+      """.trim(),
+      """
+      Percentage of the link capacity above which new rooms and joins are rejected.
+      The egress of a new room, or of a new client, is projected with the average of the current ones.
+      Does nothing if the link capacity is not set.
+      """.trim(),
+      "Percentage of the link capacity under which new rooms and joins are accepted again, after a rejection.",
+      """
+      Peer relays, as &lbhost:port&lw separated by commas.
+      When this server is full, room creations are redirected to the least loaded of them.
+      """.trim(),
+      "Interval between two refreshes of the load of peer relays. (in seconds)",
+      """
+      Node id of this server in the cluster, from &lb1&lw to &lb255&lw. Set to &lb0&lw to disable the cluster mode.
+      Room ids carry the node id, so joins of rooms of other nodes are redirected to them.
+      Nodes are found from the peer relays, so they must be listed in &lbpeers&lw.
+      """.trim(),
+      """
+      Secret shared by the relays of the cluster, to accept the room tokens of each others.
+      Rooms can only migrate between relays having the same secret. Leave empty to use a random one.
+      """.trim(),
+      "The time given to rooms to migrate to another relay when draining the server. (in seconds)",
+      """
+      The time a room is kept after its host lost the connection, for it to re-attach. (in seconds)
+      Set to &lb0&lw to close rooms directly. Only for hosts supporting it.
+      """.trim(),
+      """
+      Maximum size of the client packets kept for a host that lost the connection. (in KiB)
+      The room is closed if the host re-attaches after this size was exceeded.
+      """.trim(),
+      """
+      Time to reclaim rooms saved when the server was stopped. (in seconds)
+      Hosts can get back their room id and state, with the resume token, after a restart.
+      Use 0 to not save rooms.
+      """.trim(),
+      """
+      Interval between notifications of idle connections to room hosts. (in ms)
+      Idle connections are grouped in one packet per room, if the host supports it.
+      Use 0 to notify each idle event.
+      """.trim(),
+      """
+      Interval between reports of the clients latency to room hosts. (in seconds)
+      The server measures the return trip time of each client, if the host supports it.
+      Use 0 to disable reports.
+      """.trim(),
+      "Maximum size of the packets kept for a connection until it joins a room. (in KiB)",
+      "Maximum size of the packets kept for all connections until they join a room. (in KiB) Set to &lb0&lw to disable.",
+      "Time after which the packets kept for a connection are discarded, if it didn't join a room. (in seconds)"
   ).reverse();
 
-  public static Field<Boolean> debug = new Field<>("debug", fieldDescs.pop(), false, v ->
-                                                   Log.level = v ? Log.LogLevel.debug : Log.LogLevel.info);
+  public static Field<Boolean> debug = new Field<>("debug", fieldDescs.pop(), false, v -> {
+    Log.level = v ? Log.LogLevel.debug : Log.LogLevel.info;
+    RawPacket.leaks.enabled = v;
+  });
   public static Field<Integer> maxConnections = new Field<>("max-connections", fieldDescs.pop(), 1<<23);
   public static Field<Integer> maxRooms = new Field<>("max-rooms", fieldDescs.pop(), 1<<16);
   public static Field<Integer> roomLimit = new Field<>("room-limit", fieldDescs.pop(), 16);
@@ -373,6 +475,45 @@ public class ClajConfig {
   public static Field<Integer> listTimeout = new Field<>("list-timeout", fieldDescs.pop(), 30);
   public static Field<Integer> raterLifetime = new Field<>("rater-tifetime", fieldDescs.pop(), 5 * 60);
   public static Field<Integer> afkTime = new Field<>("afk-time", fieldDescs.pop(), 2 * 60);
+  public static Field<Boolean> fastForward = new Field<>("fast-forward", fieldDescs.pop(), true);
+  public static Field<Integer> relayShards = new Field<>("relay-shards", fieldDescs.pop(), 0);
+  public static Field<String> compression = new Field<>("compression", fieldDescs.pop(), "none");
+  public static Field<Integer> compressionThreshold = new Field<>("compression-threshold", fieldDescs.pop(), 256);
+  public static Field<Integer> blobCacheSize = new Field<>("blob-cache-size", fieldDescs.pop(), 8192, _ -> {
+    if (ClajVars.relay != null) ClajVars.relay.applyBlobLimits();
+  });
+  public static Field<Integer> blobCacheTotal = new Field<>("blob-cache-total", fieldDescs.pop(), 256, _ -> {
+    if (ClajVars.relay != null) ClajVars.relay.applyBlobLimits();
+  });
+  public static Field<Integer> writeHighWatermark = new Field<>("write-high-watermark", fieldDescs.pop(), 24576);
+  public static Field<Integer> writeLowWatermark = new Field<>("write-low-watermark", fieldDescs.pop(), 8192);
+  public static Field<Integer> writeQueueBudget = new Field<>("write-queue-budget", fieldDescs.pop(), 512);
+  public static Field<Integer> udpRingSize = new Field<>("udp-ring-size", fieldDescs.pop(), 16);
+  public static Field<Integer> linkCapacity = new Field<>("link-capacity", fieldDescs.pop(), 0);
+  public static Field<Integer> roomWeight = new Field<>("room-weight", fieldDescs.pop(), 1);
+  public static Field<Integer> ipByteRate = new Field<>("ip-byte-rate", fieldDescs.pop(), 0);
+  public static Field<Integer> ipByteBurst = new Field<>("ip-byte-burst", fieldDescs.pop(), 1024);
+  public static Field<Integer> roomByteRate = new Field<>("room-byte-rate", fieldDescs.pop(), 0);
+  public static Field<Integer> roomByteBurst = new Field<>("room-byte-burst", fieldDescs.pop(), 4096);
+  public static Field<Integer> shapingDelay = new Field<>("shaping-delay", fieldDescs.pop(), 500);
+  public static Field<Integer> quotaDropLimit = new Field<>("quota-drop-limit", fieldDescs.pop(), 64);
+  public static Field<Integer> admissionHigh = new Field<>("admission-high", fieldDescs.pop(), 90);
+  public static Field<Integer> admissionLow = new Field<>("admission-low", fieldDescs.pop(), 75);
+  public static Field<String> peers = new Field<>("peers", fieldDescs.pop(), "");
+  public static Field<Integer> peerRefresh = new Field<>("peer-refresh", fieldDescs.pop(), 15);
+  public static Field<Integer> clusterNode = new Field<>("cluster-node", fieldDescs.pop(), 0);
+  public static Field<String> clusterSecret = new Field<>("cluster-secret", fieldDescs.pop(), "");
+  public static Field<Integer> drainWait = new Field<>("drain-wait", fieldDescs.pop(), 120);
+  public static Field<Integer> hostGrace = new Field<>("host-grace", fieldDescs.pop(), 30);
+  public static Field<Integer> resumeBacklog = new Field<>("resume-backlog", fieldDescs.pop(), 256);
+  public static Field<Integer> reclaimWindow = new Field<>("reclaim-window", fieldDescs.pop(), 120);
+  public static Field<Integer> idleInterval = new Field<>("idle-interval", fieldDescs.pop(), 100);
+  public static Field<Integer> latencyInterval = new Field<>("latency-interval", fieldDescs.pop(), 2, _ -> {
+    if (ClajVars.relay != null) ClajVars.relay.scheduleLatencyReports();
+  });
+  public static Field<Integer> joinQueueBudget = new Field<>("join-queue-budget", fieldDescs.pop(), 16);
+  public static Field<Integer> joinQueueTotal = new Field<>("join-queue-total", fieldDescs.pop(), 4096);
+  public static Field<Integer> joinQueueDeadline = new Field<>("join-queue-deadline", fieldDescs.pop(), 10);
 
   // Other fields having their own command
   public static SetField<String> blacklist = new SetField<>("blacklist", "", String.class, ObjectSet::new);
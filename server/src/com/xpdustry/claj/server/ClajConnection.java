@@ -20,16 +20,22 @@
 package com.xpdustry.claj.server;
 
 import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import arc.net.Connection;
+import arc.func.Cons;
 import arc.net.DcReason;
+import arc.struct.Queue;
 import arc.util.Log;
 import arc.util.Ratekeeper;
+import arc.util.Time;
 
 import com.xpdustry.claj.common.net.stream.PreparedStream;
 import com.xpdustry.claj.common.net.stream.StreamSender;
 import com.xpdustry.claj.common.packets.Packet;
+import com.xpdustry.claj.common.packets.RawPacket;
 import com.xpdustry.claj.common.util.AddressUtil;
+import com.xpdustry.claj.server.util.TokenBucket;
 
 
 public class ClajConnection {
@@ -40,7 +46,40 @@ public class ClajConnection {
   /** hex version of {@link #id}. */
   public final String sid;
   public final Ratekeeper packetRate;
-  protected ClajRoom room;
+  /** Number of holds on direct forwarding. Mainly packets posted to the main thread and not yet handled. */
+  protected final AtomicInteger holds = new AtomicInteger();
+  /** Volatile because it is also read by the network thread, for direct forwarding. */
+  protected volatile ClajRoom room;
+  /**
+   * Whether the room host has sent a reliable packet to this connection. <br>
+   * Only addressed connections are implicitly targeted by a multicast, as the host may not know the others yet.
+   */
+  protected volatile boolean addressed;
+  /** Room-local slot, for the compact framing. {@code -1} if not used. */
+  protected volatile int slot = -1;
+  /** Blobs being sent to this connection, the packets of the host are deferred after them. */
+  protected volatile BlobDelivery delivery;
+  /**
+   * Relayed reliable packets waiting for the write buffer to go under the high watermark. <br>
+   * Also guards {@link #udpRing} and the congestion state.
+   */
+  protected final Queue<RawPacket> tcpQueue = new Queue<>();
+  protected int queuedBytes;
+  /** Latest relayed unreliable packets received while congested, the oldest are dropped first. */
+  protected RawPacket[] udpRing;
+  protected int udpHead, udpSize;
+  /** Set above the high watermark, cleared when the queue is empty and under the low watermark. */
+  protected volatile boolean congested;
+  protected long droppedPackets;
+  /** Byte quota shared by the connections of the same address. Only used by the network thread. */
+  protected volatile TokenBucket addressQuota;
+  /** Rate of packets dropped by the byte quotas. Only used by the network thread. */
+  public final Ratekeeper quotaDropRate = new Ratekeeper();
+  /** Packets delayed by the byte quotas, in reception order. Also guards {@link #shaping}. */
+  protected final Queue<Delayed> delayed = new Queue<>();
+  /** Whether packets are delayed, so the next ones must be delayed too, to keep their order. */
+  protected volatile boolean shaping;
+  protected long shapedUntil;
 
   public ClajConnection(Connection connection) {
     if (connection == null) throw new NullPointerException("connection is null");
@@ -62,14 +101,60 @@ public class ClajConnection {
     return room != null && room.host == this;
   }
 
+  /**
+   * Prevents packets of this connection from being forwarded from the network thread,
+   * so they pass by the main thread and keep their order. Must be paired with {@link #release()}.
+   */
+  public void hold() {
+    holds.incrementAndGet();
+  }
+
+  public void release() {
+    holds.decrementAndGet();
+  }
+
+  /** @return whether packets of this connection must pass by the main thread. */
+  public boolean isHeld() {
+    return holds.get() > 0;
+  }
+
   public boolean isConnected() {
     return connection.isConnected();
   }
 
   /** Send via TCP. */
   public void send(Object object) { send(object, true); }
+  /**
+   * Relayed packets are subject to backpressure: above the high watermark of the write buffer,
+   * reliable ones are queued up to a budget, and only the latest unreliable ones are kept.
+   */
   public void send(Object object, boolean reliable) {
     if (!isConnected()) return;
+    if (!(object instanceof RawPacket raw) ||
+        !congested && connection.getTcpWriteBufferSize() <= ClajConfig.writeHighWatermark.get()) {
+      sendNow(object, reliable);
+      return;
+    }
+
+    synchronized (tcpQueue) {
+      setCongested(true);
+      if (reliable) {
+        int size = raw.data.remaining();
+        if (queuedBytes + size > ClajConfig.writeQueueBudget.get() * 1024) {
+          Log.warn("Connection @ is too slow, its write queue is full. Disconnecting it!", sid);
+          close(DcReason.error);
+          return;
+        }
+        tcpQueue.addLast(raw.retain());
+        queuedBytes += size;
+      } else {
+        pushUnreliable(raw.retain());
+      }
+    }
+    flushQueue();
+  }
+
+  protected void sendNow(Object object, boolean reliable) {
     try {
       if(reliable) connection.sendTCP(object);
       else connection.sendUDP(object);
@@ -80,6 +165,167 @@ public class ClajConnection {
     }
   }
 
+  /** Must be called while holding {@link #tcpQueue}. */
+  protected void pushUnreliable(RawPacket raw) {
+    int capacity = ClajConfig.udpRingSize.get();
+    if (capacity <= 0) {
+      raw.release();
+      droppedPackets++;
+      return;
+    }
+    if (udpRing == null || udpRing.length != capacity) resizeRing(capacity);
+    if (udpSize == capacity) {
+      // Drop the oldest
+      udpRing[udpHead].release();
+      udpRing[udpHead] = null;
+      udpHead = (udpHead + 1) % capacity;
+      udpSize--;
+      droppedPackets++;
+    }
+    udpRing[(udpHead + udpSize) % capacity] = raw;
+    udpSize++;
+  }
+
+  protected void resizeRing(int capacity) {
+    RawPacket[] ring = new RawPacket[capacity];
+    // Keep the latest packets
+    while (udpSize > capacity) {
+      udpRing[udpHead].release();
+      udpHead = (udpHead + 1) % udpRing.length;
+      udpSize--;
+      droppedPackets++;
+    }
+    for (int i=0; i<udpSize; i++) ring[i] = udpRing[(udpHead + i) % udpRing.length];
+    udpRing = ring;
+    udpHead = 0;
+  }
+
+  /**
+   * Sends the queued reliable packets while under the high watermark.
+   * Then, once under the low watermark, the kept unreliable packets, and the congestion ends.
+   * @return whether the connection is not congested anymore.
+   */
+  public boolean flushQueue() {
+    if (!congested) return true;
+    synchronized (tcpQueue) {
+      if (!isConnected()) {
+        clearQueue();
+        return true;
+      }
+      int high = ClajConfig.writeHighWatermark.get();
+      while (!tcpQueue.isEmpty() && connection.getTcpWriteBufferSize() <= high) {
+        RawPacket raw = tcpQueue.removeFirst();
+        queuedBytes -= raw.data.remaining();
+        try { sendNow(raw, true); }
+        finally { raw.release(); }
+      }
+      if (!tcpQueue.isEmpty() || connection.getTcpWriteBufferSize() > ClajConfig.writeLowWatermark.get())
+        return false;
+
+      for (; udpSize > 0; udpSize--) {
+        RawPacket raw = udpRing[udpHead];
+        udpRing[udpHead] = null;
+        udpHead = (udpHead + 1) % udpRing.length;
+        try { sendNow(raw, false); }
+        finally { raw.release(); }
+      }
+      udpHead = 0;
+      setCongested(false);
+      return true;
+    }
+  }
+
+  /** Frees the queued packets. */
+  public void clearQueue() {
+    synchronized (tcpQueue) {
+      while (!tcpQueue.isEmpty()) tcpQueue.removeFirst().release();
+      queuedBytes = 0;
+      for (; udpSize > 0; udpSize--) {
+        udpRing[udpHead].release();
+        udpRing[udpHead] = null;
+        udpHead = (udpHead + 1) % udpRing.length;
+      }
+      udpHead = 0;
+      congested = false;
+    }
+  }
+
+  /** Notifies the room of a change. Must be called while holding {@link #tcpQueue}. */
+  protected void setCongested(boolean congested) {
+    if (this.congested == congested) return;
+    this.congested = congested;
+    ClajRoom room = this.room;
+    if (room != null) room.congested(this, congested);
+  }
+
+  public boolean isCongested() {
+    return congested;
+  }
+
+  /** @return the size of the queued reliable packets. (in bytes) */
+  public int queuedBytes() {
+    synchronized (tcpQueue) { return queuedBytes; }
+  }
+
+  /** @return the number of unreliable packets dropped because of congestion. */
+  public long droppedPackets() {
+    synchronized (tcpQueue) { return droppedPackets; }
+  }
+
+  public boolean isShaping() {
+    return shaping;
+  }
+
+  /**
+   * Delays a packet, after the already delayed ones. The connection is held until they are all handled.
+   * @return whether it's the first delayed packet, so {@link #drainDelayed(Cons)} must be scheduled.
+   */
+  public boolean delay(Packet packet, long delayNanos) {
+    synchronized (delayed) {
+      shapedUntil = Math.max(shapedUntil, Time.nanos() + delayNanos);
+      delayed.addLast(new Delayed(packet, shapedUntil));
+      if (shaping) return false;
+      shaping = true;
+      hold(); // released when drained
+      return true;
+    }
+  }
+
+  /**
+   * Passes the delayed packets that are due to the handler, in order.
+   * @return the time until the next packet is due, or {@code 0} if none are left. (in ns)
+   */
+  public long drainDelayed(Cons<Packet> handler) {
+    long now = Time.nanos();
+    for (;;) {
+      Delayed next;
+      synchronized (delayed) {
+        if (delayed.isEmpty()) {
+          if (shaping) {
+            shaping = false;
+            release();
+          }
+          return 0;
+        }
+        next = delayed.first();
+        if (next.due - now > 0) return next.due - now;
+        delayed.removeFirst();
+      }
+      handler.get(next.packet);
+    }
+  }
+
+  /** Frees the delayed packets. */
+  public void clearDelayed() {
+    synchronized (delayed) {
+      while (!delayed.isEmpty()) ClajRelay.free(delayed.removeFirst().packet);
+      if (shaping) {
+        shaping = false;
+        release();
+      }
+    }
+  }
+
   public void sendStream(Packet packet) {
     StreamSender.send(connection, packet);
   }
@@ -92,4 +338,16 @@ public class ClajConnection {
   public void close(DcReason reason) {
     connection.close(reason);
   }
+
+
+  protected static class Delayed {
+    public final Packet packet;
+    /** Time at which the packet can be handled. (in ns) */
+    public final long due;
+
+    public Delayed(Packet packet, long due) {
+      this.packet = packet;
+      this.due = due;
+    }
+  }
 }
@@ -126,6 +126,22 @@ public class ClajControl extends CommandHandler implements ApplicationListener {
       Log.info("&lk|&fr CPU: @ (@)", String.format("%.2f%%", state.javaCpuLoad),
                String.format("%.2f%%", state.systemCpuLoad));
       Log.info("&lk|&fr Load: @ rooms, @ clients, @ connections.", state.rooms, state.clients, state.connections);
+      RelayShard[] shards = ClajVars.relay.shards();
+      if (shards.length > 0) {
+        int pending = 0;
+        for (RelayShard shard : shards) pending += shard.pending();
+        Log.info("&lk|&fr Relay shards: @ (@ packets pending)", shards.length, pending);
+      }
+      if (ClusterDirectory.localNode() != 0)
+        Log.info("&lk|&fr Cluster: node @, @ known nodes.", ClusterDirectory.localNode(),
+                 ClajVars.relay.cluster.nodes().length);
+      JoinQueues joinQueues = ClajVars.relay.joinQueues;
+      Log.info("&lk|&fr Join queues: @ connections, @ (@ queued, @ flushed, @ dropped)", joinQueues.size(),
+               Strings.formatBytes(joinQueues.queuedBytes()), joinQueues.queued(), joinQueues.flushed(),
+               joinQueues.dropped());
+      if (ClajVars.relay.isDraining())
+        Log.info("&lk|&fr Draining: @ rooms left, @ migrated to @.", state.rooms, ClajVars.relay.migratedRooms(),
+                 ClajVars.relay.drainTarget() == null ? "nowhere" : ClajVars.relay.drainTarget());
       if (ClajVars.relay.networkSpeed == null) {
         Log.info("&lk|&fr Network speed calculator is disabled.");
         return;
@@ -133,6 +149,10 @@ public class ClajControl extends CommandHandler implements ApplicationListener {
       Log.info("&lk|&fr Network: @/s up, @/s down (@ up, @ down)", Strings.formatBytes(state.uploadSpeed),
                Strings.formatBytes(state.downloadSpeed), Strings.formatBytes(state.totalUpload),
                Strings.formatBytes(state.totalDownload));
+      AdmissionControl admission = ClajVars.relay.admission;
+      if (admission.isEnabled())
+        Log.info("&lk|&fr Admission: @ (@ rejected)", admission.isSaturated() ? "saturated" : "open",
+                 admission.rejected());
     });
 
     register("gc", "Trigger a garbage collection.", args -> {
@@ -152,6 +172,36 @@ public class ClajControl extends CommandHandler implements ApplicationListener {
       ClajVars.relay.stop(Core.app::exit);
     });
 
+    register("drain", "[host:port|cancel]",
+             "Migrate rooms to another relay, or the least loaded peer, then stop the server.", args -> {
+      if (args.length == 0) {
+        if (ClajVars.relay.isDraining()) {
+          Log.err("The server is already draining.");
+          return;
+        }
+        PeerMonitor.Peer target = ClajVars.relay.peers.best();
+        if (target == null) Log.warn("No peer relay available, rooms will not be migrated.");
+        ClajVars.relay.drain(target, Core.app::exit);
+
+      } else if (args[0].equals("cancel")) {
+        if (!ClajVars.relay.isDraining()) {
+          Log.err("The server is not draining.");
+          return;
+        }
+        ClajVars.relay.cancelDrain();
+        Log.info("Draining canceled. @ rooms have already been migrated.", ClajVars.relay.migratedRooms());
+
+      } else {
+        PeerMonitor.Peer[] target = PeerMonitor.parse(args[0]);
+        if (target.length != 1) {
+          Log.err("Invalid relay address! Must be 'host:port'.");
+          return;
+        }
+        if (ClajVars.relay.isDraining()) Log.err("The server is already draining.");
+        else ClajVars.relay.drain(target[0], Core.app::exit);
+      }
+    });
+
     register("plugins", "[name...]", "Display loaded plugins or information of a specific one.", args -> {
       if (args.length == 0) {
          if (!ClajVars.plugins.list().isEmpty()) {
@@ -188,8 +238,12 @@ public class ClajControl extends CommandHandler implements ApplicationListener {
           Log.info("&lk|&fr Room @: [@ client" + (r.clients.isEmpty() ? "" : "s") + ", type: @]", r.sid,
                    r.clients.size + 1, r.type);
           Log.info("&lk| |&fr [H] Connection @&fr - @", r.host.sid, r.host.saddress);
-          for (ClajConnection c : r.clients.values())
-            Log.info("&lk| |&fr [C] Connection @&fr - @", c.sid, c.saddress);
+          for (ClajConnection c : r.clients.values()) {
+            // Only measured when reporting the latency to hosts
+            int rtt = c.connection.getReturnTripTime();
+            if (rtt > 0) Log.info("&lk| |&fr [C] Connection @&fr - @ &lk(@ms)", c.sid, c.saddress, rtt);
+            else Log.info("&lk| |&fr [C] Connection @&fr - @", c.sid, c.saddress);
+          }
           Log.info("&lk|&fr");
         });
 
@@ -198,9 +252,13 @@ public class ClajControl extends CommandHandler implements ApplicationListener {
         ClajVars.relay.rooms.eachValue(r -> {
           NetworkSpeed n = r.transferredPackets;
           Log.info("&lk|&fr @: @ client" + (r.clients.isEmpty() ? "" : "s") +
-                   " (@). @ p/s in, @ p/s out (@ in, @ out).",
+                   " (@). @ p/s in, @ p/s out (@ in, @ out). Compression: @%." +
+                   " Egress: weight @, @ queued (@), @ served.",
                    r.sid, r.clients.size + 1, Strings.formatDuration(Time.timeSinceMillis(r.createdAt), true),
-                   Mathf.ceil(n.uploadSpeed()), Mathf.ceil(n.downloadSpeed()), n.totalUpload(), n.totalDownload());
+                   Mathf.ceil(n.uploadSpeed()), Mathf.ceil(n.downloadSpeed()), n.totalUpload(), n.totalDownload(),
+                   Mathf.round(r.compressionRatio() * 100), r.weight, ClajVars.relay.egress.queued(r),
+                   Strings.formatBytes(ClajVars.relay.egress.queuedBytes(r)),
+                   Strings.formatBytes(ClajVars.relay.egress.servedBytes(r)));
         });
 
       } else {
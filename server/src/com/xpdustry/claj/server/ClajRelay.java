@@ -24,12 +24,15 @@ import java.io.UncheckedIOException;
 import java.net.BindException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedSelectorException;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import arc.*;
+import arc.func.Cons2;
 import arc.math.Mathf;
 import arc.net.*;
 import arc.struct.*;
 import arc.util.*;
+import arc.util.io.ByteBufferOutput;
 
 import com.xpdustry.claj.common.ClajNet;
 import com.xpdustry.claj.common.ClajPackets.*;
@@ -40,7 +43,10 @@ import com.xpdustry.claj.common.status.*;
 import com.xpdustry.claj.common.util.AddressUtil;
 import com.xpdustry.claj.common.util.Strings;
 import com.xpdustry.claj.server.ClajEvents.*;
+import com.xpdustry.claj.server.util.ClajApplication;
 import com.xpdustry.claj.server.util.NetworkSpeed;
+import com.xpdustry.claj.server.util.TimingWheel;
+import com.xpdustry.claj.server.util.TokenBucket;
 
 
 /** CLaJ server main class that doing all the stuff. */
@@ -62,32 +68,78 @@ public class ClajRelay extends Server implements ApplicationListener {
   public volatile boolean beQuiet;
   /** Total number of clients in rooms. */
   protected int clientsInRooms;
+  /** Threads forwarding relayed packets. Empty if packets are forwarded by the network thread. */
+  protected RelayShard[] shards = {};
+  /** Capacity of the hand-off ring of each shard. */
+  protected int shardCapacity = 1 << 12;
+  /** Rooms having a pending batch of packets for their host. */
+  protected final ConcurrentLinkedQueue<ClajRoom> batchedRooms = new ConcurrentLinkedQueue<>();
+  /** Rooms having idle clients to notify to their host. */
+  protected final ConcurrentLinkedQueue<ClajRoom> idleRooms = new ConcurrentLinkedQueue<>();
+  /** Last time idle clients were notified. */
+  protected volatile long lastIdleFlush;
+  /** Reports the latency of clients every {@link ClajConfig#latencyInterval}. */
+  protected TimingWheel.Task latencyTask;
+  /** Shares the egress bandwidth between rooms, when {@link ClajConfig#linkCapacity} is set. */
+  public final EgressScheduler egress = new EgressScheduler();
+  /** Rejects new rooms and joins when the egress is near the link capacity. */
+  public final AdmissionControl admission;
+  /** Load of peer relays, to redirect room creations when this server is full. */
+  public final PeerMonitor peers;
+  /** Nodes of the cluster, to find the owner of rooms created by other nodes. */
+  public final ClusterDirectory cluster;
+  /** Issues the tokens allowing hosts to re-create their room under the same id. */
+  public final RoomTokens tokens = new RoomTokens();
+  /** Rooms saved when the server was stopped, that hosts can reclaim after a restart. */
+  public final RoomSnapshot snapshot = new RoomSnapshot(ClajVars.workingDirectory.child("rooms.bin"));
+  /** Whether the server is draining, so rooms are migrated and new ones are rejected. */
+  protected volatile boolean draining;
+  /** Relay where rooms are migrated when draining. Can be {@code null}. */
+  protected PeerMonitor.Peer drainTarget;
+  /** Rooms migrated when draining, with their new relay, to redirect the joins. */
+  protected final LongMap<PeerMonitor.Peer> migrated = new LongMap<>();
+  protected TimingWheel.Task drainTask;
 
   // Caches
-  /**
-   * Keeps a cache of packets received from connections that are not yet in a room. (queue of 2)<br>
-   * Sometimes the join packet comes after other packets, and can lead to a client-side error/timeout.
-   */
-  private final IntMap<RawPacket[]> packetQueue = new IntMap<>();
-  /** Size of the packet queue. */
-  private final int packetQueueSize = 2, packetSizeInQueue = 1 << 13;
-  /** As server version will not change at runtime, cache the serialized packet to avoid re-serialization. */
-  private ByteBuffer versionBuff;
+  /** Packets received from connections that are not yet in a room. */
+  public final JoinQueues joinQueues;
+  /** Answer of discovery requests, with the version and the load of the server. Only used by the network thread. */
+  private final ByteBuffer infoBuff = ByteBuffer.allocate(64);
+  private final ByteBufferOutput infoWrite = new ByteBufferOutput(infoBuff);
+  private final ServerInfoPacket infoPacket = new ServerInfoPacket();
   /** Empty room list to send to client requesting no type or a not found one. */
   protected final RoomListPacket emptyList = new RoomListPacket().clear(true);
 
   public ClajRelay() { this(null); }
-  public ClajRelay(NetworkSpeed speedCalculator) {
+  public ClajRelay(NetworkSpeed speedCalculator) { this(speedCalculator, new ClusterDirectory()); }
+  /** @param cluster can be shared by relays of the same process. */
+  public ClajRelay(NetworkSpeed speedCalculator, ClusterDirectory cluster) {
     super(32768, 32768, new ClajServerSerializer(speedCalculator));
+    this.cluster = cluster;
+    peers = new PeerMonitor(cluster);
     networkSpeed = speedCalculator;
-    receiver = new ServerReceiver(this, Core.app::post);
+    admission = new AdmissionControl(speedCalculator);
+    receiver = new ServerReceiver(this, Core.app::post) {
+      /** Packets posted to the main thread must not overtake the ones queued in the shard of the room. */
+      @Override
+      public void delegateReceive(Connection connection, Packet packet) {
+        ClajConnection con = toClajCon(connection);
+        long fence = fenceOf(con);
+        if (fence < 0) {
+          super.delegateReceive(connection, packet);
+          return;
+        }
+        Packet detached = packet.detach();
+        delegator.get(() -> {
+          awaitFence(con, fence);
+          received(connection, detached);
+        });
+      }
+    };
     routines = new ClajRoutines();
+    joinQueues = new JoinQueues(routines);
 
-    setDiscoveryHandler((_, r) -> {
-      if (versionBuff == null)
-        versionBuff = ByteBuffer.allocate(5).put(ClajNet.id).putInt(ClajVars.version.majorVersion);
-      r.respond((ByteBuffer)versionBuff.rewind());
-    });
+    setDiscoveryHandler((_, r) -> r.respond(writeServerInfo()));
 
     receiver.setFilter(new NetListenerFilter() {
       public boolean connected(Connection connection) { return isConnectAllowed(connection); }
@@ -98,23 +150,37 @@ public class ClajRelay extends Server implements ApplicationListener {
     receiver.handle(Connect.class, c -> onConnect(toClajCon(c)));
     receiver.handle(Disconnect.class, (c, p) -> onDisconnect(toClajCon(c), p.reason));
     receiver.handle(Idle.class, c -> onIdle(toClajCon(c)));
+    // Grouped idle events don't need the main thread
+    receiver.handleDirect(Idle.class, (c, _) -> onIdleDirect(toClajCon(c)));
 
-    receiver.handle(RoomCreationRequestPacket.class, (c, p) -> onRoomCreate(toClajCon(c), p.version, p.type));
+    receiver.handle(RoomCreationRequestPacket.class, (c, p) ->
+      onRoomCreate(toClajCon(c), p.version, p.type, p.features, p.roomId, p.token));
     receiver.handle(RoomClosureRequestPacket.class, c -> onRoomClose(toClajCon(c)));
     receiver.handle(RoomJoinPacket.class, (c, p) ->
       onRoomJoin(toClajCon(c), false, p.roomId, p.type, p.withPassword, p.password));
     receiver.handle(RoomJoinRequestPacket.class, (c, p) ->
-      onRoomJoin(toClajCon(c), true, p.roomId, p.type, p.withPassword, p.password));
+      onRoomJoin(toClajCon(c), true, p.roomId, p.type, p.withPassword, p.password, p.flags));
     receiver.handle(RoomConfigPacket.class, (c, p) ->
       onRoomConfig(toClajCon(c), p.isPublic, p.isProtected, p.password, p.requestState, p.maxClients));
     receiver.handle(RoomStatePacket.class, (c, p) -> onRoomState(toClajCon(c), p.state));
-    receiver.handle(RoomInfoRequestPacket.class, (c, p) -> onInfoRequest(toClajCon(c), p.roomId));
+    receiver.handle(RoomInfoRequestPacket.class, (c, p) -> onInfoRequest(toClajCon(c), p.roomId, p.flags));
     receiver.handle(RoomListRequestPacket.class, (c, p) -> onListRequest(toClajCon(c), p.type));
 
     receiver.handle(ConnectionClosedPacket.class, (c, p) -> onConClose(toClajCon(c), p.conID, p.reason));
-    //TODO: keep these two on the network thread for optimization?
-    receiver.handle(ConnectionPacketWrapPacket.class, (c, p) -> onHostPacket(toClajCon(c), p));
-    receiver.handle(RawPacket.class, (c, p) -> onConPacket(toClajCon(c), p));
+    receiver.handle(ConnectionPacketWrapPacket.class, (c, p) -> released(toClajCon(c), p, this::onHostPacket));
+    receiver.handle(ConnectionPacketMulticastPacket.class, (c, p) -> released(toClajCon(c), p, this::onHostPacket));
+    receiver.handle(ConnectionPacketBatchPacket.class, (c, p) -> released(toClajCon(c), p, this::onHostPacket));
+    receiver.handle(RawPacket.class, (c, p) -> released(toClajCon(c), p, this::onConPacket));
+    receiver.handle(BlobOfferPacket.class, (c, p) -> released(toClajCon(c), p, this::onBlobOffer));
+    receiver.handle(BlobDataPacket.class, (c, p) -> onBlobData(toClajCon(c), p));
+
+    // Data packets are forwarded directly by the network thread, when possible
+    receiver.handleDirect(ConnectionPacketWrapPacket.class, (c, p) -> onHostPacketDirect(toClajCon(c), p));
+    receiver.handleDirect(ConnectionPacketMulticastPacket.class, (c, p) -> onHostPacketDirect(toClajCon(c), p));
+    receiver.handleDirect(ConnectionPacketBatchPacket.class, (c, p) -> onHostPacketDirect(toClajCon(c), p));
+    receiver.handleDirect(RawPacket.class, (c, p) -> onConPacketDirect(toClajCon(c), p));
+    // Next packets of the host must wait for the offer to be handled
+    receiver.handleDirect(BlobOfferPacket.class, (c, _) -> hold(toClajCon(c)));
   }
 
   // region logging
@@ -170,18 +236,26 @@ public class ClajRelay extends Server implements ApplicationListener {
 
   public boolean isReceiveAllowed(Connection connection, Object object) {
     ClajConnection con = toClajCon(connection);
-    if (con == null) return false;
+    if (con == null) {
+      free(object);
+      return false;
+    }
     // Compatibility with the xzxADIxzx's version
     if (object instanceof String) {
       rejectObsoleteClient(con);
       return false;
     }
-    return checkRateLimit(con);
+    if (!checkRateLimit(con)) {
+      free(object);
+      return false;
+    }
+    return checkByteQuota(con, object);
   }
 
   public void onConnect(ClajConnection connection) {
     if (connection == null) return;
     connections.put(connection.id, connection);
+    connection.addressQuota = routines.getAddressRate(connection).bytes;
     Events.fire(new ClientConnectedEvent(connection));
   }
 
@@ -189,10 +263,15 @@ public class ClajRelay extends Server implements ApplicationListener {
     if (connection == null) return;
     Events.fire(new ClientDisonnectedEvent(connection, reason));
     connections.remove(connection.id);
+    connection.clearQueue();
+    connection.clearDelayed();
 
     ClajRoom room = connection.room;
-    if (removeClient(connection, reason)){
-      info("Room @ closed because connection @ (the host) has disconnected.", room.sid, connection.sid);
+    if (removeClient(connection, reason)) {
+      if (room.isHostLost())
+        info("Room @ lost its host (connection @), waiting @s for it to come back.", room.sid, connection.sid,
+             ClajConfig.hostGrace.get());
+      else info("Room @ closed because connection @ (the host) has disconnected.", room.sid, connection.sid);
     } else if (room != null) {
       info("Connection @ left the room @.", connection.sid, room.sid);
     }
@@ -200,12 +279,40 @@ public class ClajRelay extends Server implements ApplicationListener {
 
   public void onIdle(ClajConnection connection) {
     if (connection == null) return;
+    // Still congested, so not really idle
+    if (!connection.flushQueue()) return;
     if (connection.room != null) connection.room.idle(connection);
     // No event for that, this is received to many times
   }
 
+  /**
+   * Handles the idle event in the network thread, if the room groups them. Else it's delegated as usual.
+   * @return whether the event has been handled.
+   */
+  protected boolean onIdleDirect(ClajConnection connection) {
+    if (connection == null) return true;
+    ClajRoom room = connection.room;
+    // The queue must be flushed, or previous packets are waiting for the main thread
+    if (connection.congested || connection.isHeld()) return false;
+    return room == null || room.idleDirect(connection);
+  }
+
   /** @return not {@code null} if action was denied. */
   public CloseReason onRoomCreate(ClajConnection connection, int version, ClajType type) {
+    return onRoomCreate(connection, version, type, 0);
+  }
+
+  /** @param features {@link ClajFeature features} supported by the host. */
+  public CloseReason onRoomCreate(ClajConnection connection, int version, ClajType type, int features) {
+    return onRoomCreate(connection, version, type, features, 0, 0);
+  }
+
+  /**
+   * @param roomId id of a room migrated from another relay, {@code 0} for a new room.
+   * @param token allowing to re-create the room under the same id.
+   */
+  public CloseReason onRoomCreate(ClajConnection connection, int version, ClajType type, int features,
+                                  long roomId, long token) {
     if (connection == null) return CloseReason.error;
     // Ignore room creation requests when the server is closing
     if (isClosed()) {
@@ -213,11 +320,35 @@ public class ClajRelay extends Server implements ApplicationListener {
       warn("Connection @ tried to create a room but the server is closed.", connection.sid);
       return CloseReason.serverClosed;
 
+    } else if (roomId != 0 && resumeRoom(connection, roomId, token)) {
+      return null;
+
+    } else if (draining) {
+      PeerMonitor.Peer target = ClajFeature.redirect.in(features) ? drainTarget() : null;
+      if (target != null) {
+        Events.fire(new RoomCreationRejectedEvent(connection, CloseReason.serverClosed));
+        redirect(connection, target.host, target.port);
+      } else rejectRoomCreation(connection, CloseReason.serverClosed);
+      warn("Connection @ tried to create a room but the server is draining.", connection.sid);
+      return CloseReason.serverClosed;
+
     } else if (ClajConfig.maxRooms.get() > 0 && rooms.size >= ClajConfig.maxRooms.get()) {
-      rejectRoomCreation(connection, CloseReason.serverFull);
+      rejectFullRoomCreation(connection, features);
       warn("Connection @ tried to create a room but the server is full.", connection.sid);
       return CloseReason.serverFull;
 
+    } else if (!admission.allowRoom(rooms.size)) {
+      rejectFullRoomCreation(connection, features);
+      warn("Connection @ tried to create a room but the link is saturated.", connection.sid);
+      return CloseReason.serverFull;
+
+    // Connections are accepted up to the limit, so only redirect if a peer can take the room
+    } else if (ClajConfig.maxConnections.get() > 0 && connections.size >= ClajConfig.maxConnections.get() &&
+               ClajFeature.redirect.in(features) && peers.best() != null) {
+      rejectFullRoomCreation(connection, features);
+      warn("Connection @ tried to create a room but the server reached its connection limit.", connection.sid);
+      return CloseReason.serverFull;
+
     } else if (version != ClajVars.version.majorVersion) {
       boolean isGreater = version > ClajVars.version.majorVersion;
       CloseReason reason = isGreater ? CloseReason.outdatedServer : CloseReason.outdatedClient;
@@ -246,8 +377,23 @@ public class ClajRelay extends Server implements ApplicationListener {
       return CloseReason.error;
     }
 
-    room = createRoom(connection, type);
-    info("Room @ created by connection @.", room.sid, connection.sid);
+    RoomSnapshot.Entry saved = roomId != 0 && !rooms.containsKey(roomId) ? snapshot.take(roomId, token) : null;
+    if (saved != null) {
+      room = createRoom(connection, type, features & supportedFeatures(), roomId);
+      reclaimRoom(room, saved);
+      info("Room @ reclaimed by connection @ after a restart.", room.sid, connection.sid);
+      return null;
+    }
+
+    if (roomId != 0 && (rooms.containsKey(roomId) || !tokens.verify(roomId, token))) {
+      warn("Connection @ tried to re-create the room @ with an invalid token, a new id will be used.",
+           connection.sid, Strings.longToBase64(roomId));
+      roomId = 0;
+    }
+
+    room = createRoom(connection, type, features & supportedFeatures(), roomId);
+    if (roomId != 0) info("Room @ migrated to this server by connection @.", room.sid, connection.sid);
+    else info("Room @ created by connection @.", room.sid, connection.sid);
     return null;
   }
 
@@ -268,6 +414,12 @@ public class ClajRelay extends Server implements ApplicationListener {
   /** @return not {@code null} if the action was denied. */
   public RejectReason onRoomJoin(ClajConnection connection, boolean isRequest, long roomId, ClajType type,
                                  boolean withPassword, short password) {
+    return onRoomJoin(connection, isRequest, roomId, type, withPassword, password, 0);
+  }
+
+  /** @param flags of the {@link RoomJoinRequestPacket join request}. */
+  public RejectReason onRoomJoin(ClajConnection connection, boolean isRequest, long roomId, ClajType type,
+                                 boolean withPassword, short password, int flags) {
     if (connection == null) return RejectReason.error;
     ClajRoom room = connection.room;
 
@@ -294,6 +446,8 @@ public class ClajRelay extends Server implements ApplicationListener {
       return RejectReason.serverClosing;
 
     } else if (room == null) {
+      if (isRequest && (flags & RoomJoinRequestPacket.FLAG_REDIRECT) != 0 && redirectToOwner(connection, roomId))
+        return RejectReason.roomNotFound;
       if (isRequest) rejectRoomJoin(connection, room, roomId, RejectReason.roomNotFound);
       else connection.close(DcReason.error);
       warn("Connection @ tried to join a not found room. (id: @)", connection.sid, Strings.longToBase64(roomId));
@@ -332,16 +486,28 @@ public class ClajRelay extends Server implements ApplicationListener {
       warn("Connection @ tried to join the room @ but it is full.", connection.sid, room.sid);
       return RejectReason.roomFull;
 
-    // Stop here if it's a request
+    } else if (!admission.allowJoin(room)) {
+      if (isRequest) rejectRoomJoin(connection, room, RejectReason.roomFull);
+      else connection.close(DcReason.error);
+      warn("Connection @ tried to join the room @ but the link is saturated.", connection.sid, room.sid);
+      return RejectReason.roomFull;
+
+    // Stop here if it's a request, unless the connection is handed off to the room
     } else if (isRequest) {
-      acceptJoinRequest(connection, room);
+      boolean handoff = (flags & RoomJoinRequestPacket.FLAG_HANDOFF) != 0;
+      acceptJoinRequest(connection, room, handoff);
       Log.debug("Connection @ validated its join request to the room @.", connection.sid, room.sid);
-      return null;
+      if (!handoff) return null;
     }
 
-    addClient(room, connection);
-    info("Connection @ joined the room @. (type: @)", connection.sid, room.sid, type);
-    handleQueue(connection, room);
+    // Queued packets must be sent before the network thread can forward new ones
+    connection.hold();
+    try {
+      addClient(room, connection);
+      info("Connection @ joined the room @. (type: @" + (isRequest ? ", handoff" : "") + ")", connection.sid,
+           room.sid, type);
+      handleQueue(connection, room);
+    } finally { connection.release(); }
     return null;
   }
 
@@ -386,6 +552,11 @@ public class ClajRelay extends Server implements ApplicationListener {
 
   /** @return whether the action was allowed or not. */
   public boolean onInfoRequest(ClajConnection connection, long roomId) {
+    return onInfoRequest(connection, roomId, 0);
+  }
+
+  /** @param flags of the {@link RoomInfoRequestPacket info request}. */
+  public boolean onInfoRequest(ClajConnection connection, long roomId, int flags) {
     if (connection == null) return false;
     else if (!routines.getAddressRate(connection).allowInfo()) {
       rejectRoomInfo(connection, null, true);
@@ -395,7 +566,9 @@ public class ClajRelay extends Server implements ApplicationListener {
     }
 
     ClajRoom room = getRoom(roomId);
-    if (room == null) {
+    if (room == null && (flags & RoomInfoRequestPacket.FLAG_REDIRECT) != 0 && redirectToOwner(connection, roomId)) {
+      return false;
+    } else if (room == null) {
       rejectRoomInfo(connection, null, false);
       warn("Connection @ tried to get state of a not found room. (id: @)", connection.sid,
            Strings.longToBase64(roomId));
@@ -471,7 +644,8 @@ public class ClajRelay extends Server implements ApplicationListener {
     return true;
   }
 
-  public boolean onHostPacket(ClajConnection connection, ConnectionPacketWrapPacket packet) {
+  /** @param packet a {@link ConnectionPacketWrapPacket} or a {@link ConnectionPacketBatchPacket}. */
+  public boolean onHostPacket(ClajConnection connection, Packet packet) {
     if (connection == null) return false;
     ClajRoom room = connection.room;
     if (room == null) return false;
@@ -481,10 +655,177 @@ public class ClajRelay extends Server implements ApplicationListener {
 
   public void onConPacket(ClajConnection connection, RawPacket packet) {
     if (connection == null) return;
-    else if (connection.room != null) connection.room.received(connection, packet);
+    ClajRoom room = connection.room;
+    if (room != null) room.received(connection, packet);
     else addQueue(connection, packet);
   }
 
+  public void onBlobOffer(ClajConnection connection, BlobOfferPacket packet) {
+    ClajRoom room = connection == null ? null : connection.room;
+    if (room == null || !room.isHost(connection)) return;
+    room.blobOffered(packet.conID, packet.hash, packet.size);
+  }
+
+  public void onBlobData(ClajConnection connection, BlobDataPacket packet) {
+    ClajRoom room = connection == null ? null : connection.room;
+    if (room == null || !room.isHost(connection)) return;
+    room.blobReceived(packet.hash, packet.data);
+  }
+
+  /**
+   * Called by the network thread. Holds the connection, so its next packets are posted to the main thread too.
+   * @return {@code false}, the packet will be posted to the main thread.
+   */
+  protected boolean hold(ClajConnection connection) {
+    if (connection != null) connection.hold(); // released by the main thread
+    return false;
+  }
+
+  /**
+   * Called by the network thread.
+   * @return whether the packet has been forwarded, else it will be posted to the main thread.
+   */
+  public boolean onHostPacketDirect(ClajConnection connection, Packet packet) {
+    ClajRoom room = connection == null ? null : connection.room;
+    if (connection != null &&
+        (!ClajConfig.fastForward.get() || room == null || !room.isHost(connection) || connection.isHeld())) {
+      connection.hold(); // released by the main thread
+      return false;
+    }
+    if (room == null) free(packet);
+    else if (!forward(room, connection, packet)) return hold(connection);
+    return true;
+  }
+
+  /**
+   * Called by the network thread. Packets of connections not yet in a room are posted to the main thread,
+   * to be queued.
+   * @return whether the packet has been forwarded, else it will be posted to the main thread.
+   */
+  public boolean onConPacketDirect(ClajConnection connection, RawPacket packet) {
+    ClajRoom room = connection == null ? null : connection.room;
+    if (connection != null &&
+        (!ClajConfig.fastForward.get() || room == null || room.isHost(connection) || connection.isHeld())) {
+      connection.hold(); // released by the main thread
+      return false;
+    }
+    if (room == null) free(packet);
+    else if (!forward(room, connection, packet)) return hold(connection);
+    return true;
+  }
+
+  /**
+   * Forwards the packet in the shard of the room, or directly if the room has no shard. <br>
+   * The packet is detached from network buffers if handed off to another thread.
+   * @return {@code false} if the shard is full, the packet must be posted to the main thread.
+   */
+  protected boolean forward(ClajRoom room, ClajConnection source, Packet packet) {
+    RelayShard shard = room.shard;
+    if (shard != null && shard.isRunning() && !shard.isShardThread()) {
+      // The network thread must not wait for the shard
+      if (shard.isFull()) return false;
+      Packet detached = packet.detach();
+      if (shard.submit(room, source.connection, detached)) return true;
+      if (detached != packet) free(detached);
+      return false;
+    }
+    try { room.received(source.connection, (Object)packet); }
+    finally { free(packet); }
+    return true;
+  }
+
+  /**
+   * Called by the network thread, before posting a packet of the connection to the main thread.
+   * @return the {@link RelayShard#fence() fence} of the shard forwarding the room of the connection,
+   *         or {@code -1} if the packets of the room are not forwarded by a shard.
+   */
+  protected long fenceOf(ClajConnection connection) {
+    ClajRoom room = connection == null ? null : connection.room;
+    RelayShard shard = room == null ? null : room.shard;
+    return shard == null || !shard.isRunning() ? -1 : shard.fence();
+  }
+
+  /**
+   * Waits until the shard of the room forwarded the packets submitted before the fence,
+   * so packets handled by the main thread don't overtake them. Called by the main thread.
+   */
+  protected void awaitFence(ClajConnection connection, long fence) {
+    if (fence < 0 || connection == null) return;
+    ClajRoom room = connection.room;
+    RelayShard shard = room == null ? null : room.shard;
+    if (shard != null) shard.await(fence);
+  }
+
+  /**
+   * Handles a packet posted by the network thread, releases the hold on the connection,
+   * then frees the packet. The handler must {@link RawPacket#retain() retain} the packet to keep it.
+   */
+  protected <T> void released(ClajConnection connection, T packet, Cons2<ClajConnection, T> handler) {
+    try { handler.get(connection, packet); }
+    finally {
+      if (connection != null) connection.release();
+      free(packet);
+    }
+  }
+
+  /** Releases pooled buffers of a relayed packet. */
+  protected static void free(Object packet) {
+    if (packet instanceof RawPacket raw) raw.release();
+    else if (packet instanceof ConnectionPacketWrapPacket wrap && wrap.raw != null) {
+      wrap.raw.release();
+      wrap.raw = null;
+    } else if (packet instanceof ConnectionPacketBatchPacket batch) {
+      for (int i=0; i<batch.packets.size; i++) free(batch.packets.items[i]);
+      batch.packets.clear();
+    }
+  }
+
+  /** Sends pending batches of all rooms to their host. Can be called from any thread. */
+  public void flushBatches() {
+    ClajRoom room;
+    while ((room = batchedRooms.poll()) != null) room.flushBatch();
+  }
+
+  /** Applies the blob cache limits to the stores of rooms. Called at start and when the config changes. */
+  public void applyBlobLimits() {
+    BlobStore.totalLimit = ClajConfig.blobCacheTotal.get() * 1024L * 1024L;
+    long max = ClajConfig.blobCacheSize.get() * 1024L;
+    rooms.eachValue(r -> r.blobs.maxBytes = max);
+  }
+
+  /** Reports the latency of clients to the host of rooms. Called by the main thread. */
+  public void reportLatencies() {
+    rooms.eachValue(ClajRoom::reportLatency);
+  }
+
+  /** (Re)schedules {@link #reportLatencies()}, or cancels it if {@link ClajConfig#latencyInterval} is disabled. */
+  public void scheduleLatencyReports() {
+    if (latencyTask != null) latencyTask.cancel();
+    latencyTask = null;
+    if (ClajConfig.latencyInterval.get() <= 0) return;
+    latencyTask = routines.schedule(new Runnable() {
+      public void run() {
+        int interval = ClajConfig.latencyInterval.get();
+        if (closed || interval <= 0) return;
+        reportLatencies();
+        latencyTask = routines.schedule(this, interval);
+      }
+    }, ClajConfig.latencyInterval.get());
+  }
+
+  /** Sends the idle clients of rooms to their host, in one packet per room. Called by the main thread. */
+  public void flushIdles() {
+    lastIdleFlush = Time.millis();
+    ClajRoom room;
+    while ((room = idleRooms.poll()) != null) room.flushIdles();
+  }
+
+  /** Asks the main loop to wake up for the next flush of idle clients. Can be called from any thread. */
+  public void requestIdleFlush() {
+    long delay = ClajConfig.idleInterval.get() - Time.timeSinceMillis(lastIdleFlush);
+    if (Core.app instanceof ClajApplication app) app.requestUpdate(delay * 1_000_000L);
+  }
+
   // end region
   // region hosting
 
@@ -514,6 +855,11 @@ public class ClajRelay extends Server implements ApplicationListener {
                                + "Make sure no other servers are running on the same port.");
     } catch (IOException e) { throw new UncheckedIOException(e); }
 
+    applyBlobLimits();
+    loadRooms();
+    startShards();
+    peers.start();
+    scheduleLatencyReports();
     Threads.daemon("CLaJ Relay", () -> {
       try { run(); }
       catch (Throwable th) {
@@ -532,6 +878,59 @@ public class ClajRelay extends Server implements ApplicationListener {
     super.run();
   }
 
+  /** Runs expired routines. Called by the main thread. */
+  @Override
+  public void update() {
+    routines.update();
+    flushBatches();
+    if (!idleRooms.isEmpty() && Time.timeSinceMillis(lastIdleFlush) >= ClajConfig.idleInterval.get()) flushIdles();
+  }
+
+  /** Wakes up shards having packets to forward, after each network update. */
+  @Override
+  public void update(int timeout) throws IOException {
+    // Queued egress must be served soon
+    if (egress.isEnabled() || egress.isPending()) timeout = Math.min(timeout, egress.isPending() ? 1 : 10);
+    super.update(timeout);
+    egress.serve();
+    flushBatches();
+    for (RelayShard shard : shards) shard.wake();
+  }
+
+  protected void startShards() {
+    stopShards();
+    int count = ClajConfig.relayShards.get();
+    if (count <= 0) count = Runtime.getRuntime().availableProcessors();
+    if (count <= 1 || !ClajConfig.fastForward.get()) return;
+
+    RelayShard[] shards = new RelayShard[count];
+    for (int i=0; i<count; i++) {
+      shards[i] = new RelayShard(i, shardCapacity, this::flushBatches);
+      shards[i].start();
+    }
+    this.shards = shards;
+    // Rooms created before
+    rooms.eachValue(r -> r.shard = shardOf(r.host));
+    Log.debug("Started @ relay shards.", count);
+  }
+
+  protected void stopShards() {
+    RelayShard[] old = shards;
+    shards = new RelayShard[0];
+    rooms.eachValue(r -> r.shard = null);
+    for (RelayShard shard : old) shard.stop();
+  }
+
+  /** @return the shard where rooms of this host are pinned. {@code null} if there are no shards. */
+  public RelayShard shardOf(ClajConnection host) {
+    RelayShard[] shards = this.shards;
+    return shards.length == 0 ? null : shards[(host.id & Integer.MAX_VALUE) % shards.length];
+  }
+
+  public RelayShard[] shards() {
+    return shards;
+  }
+
   @Override
   public void stop() { stop(false); }
   public void stop(boolean notify) { stop(false, null); }
@@ -560,22 +959,119 @@ public class ClajRelay extends Server implements ApplicationListener {
       float wait = ClajConfig.closeWait.get();
       Log.info("Notifying server closure to rooms... The server will exit in @s.", wait);
       rooms.eachValue(r -> r.message(MessageType.serverClosing));
-      Timer.schedule(notified, wait);
+      routines.schedule(notified, wait);
     } else notified.run();
   }
 
   protected void clearAndStop() {
+    if (drainTask != null) drainTask.cancel();
+    if (latencyTask != null) latencyTask.cancel();
+    latencyTask = null;
+    draining = false;
+    drainTarget = null;
+    migrated.clear();
+    saveRooms();
     closeRooms();
     super.stop();
+    stopShards();
+    peers.stop();
   }
 
   public boolean isClosed() {
     return closed;
   }
 
+  /** Saves rooms that can be reclaimed after a restart. Nothing is written if there are no rooms. */
+  public void saveRooms() {
+    if (rooms.isEmpty() || ClajConfig.reclaimWindow.get() <= 0) return;
+    try {
+      int count = snapshot.save(rooms.values());
+      if (count > 0) Log.info("Saved @ rooms, they can be reclaimed for @s.", count, ClajConfig.reclaimWindow.get());
+    } catch (Exception e) { Log.err("Failed to save rooms", e); }
+  }
+
+  /** Loads the rooms saved by {@link #saveRooms()}, if the window to reclaim them has not expired. */
+  public void loadRooms() {
+    if (ClajConfig.reclaimWindow.get() <= 0) {
+      snapshot.clear();
+      return;
+    }
+    try {
+      int count = snapshot.load();
+      if (count > 0) Log.info("Loaded @ saved rooms, waiting for their host to reclaim them.", count);
+    } catch (Exception e) { Log.err("Failed to load saved rooms", e); }
+  }
+
+  /**
+   * Stops accepting rooms, and asks hosts to migrate their room to the target.
+   * Then stops the server when all rooms are gone, or after {@link ClajConfig#drainWait}. <br>
+   * Hosts not supporting migrations are warned that the server is closing, like {@link #notifyStop(Runnable)}.
+   * @param target relay where to migrate rooms, can be {@code null} to only wait for rooms to close.
+   * @param stopped called after the server was stopped, can be {@code null}.
+   */
+  public void drain(PeerMonitor.Peer target, Runnable stopped) {
+    if (closed || draining) return;
+    draining = true;
+    drainTarget = target;
+    Events.fire(new ServerStoppingEvent(true));
+
+    int migrating = 0;
+    long lifetime = Math.max(1, ClajConfig.drainWait.get()) * 1000L;
+    for (ClajRoom room : rooms.values()) {
+      if (target != null && ClajFeature.migrate.in(room.features)) {
+        RoomMigratePacket p = new RoomMigratePacket();
+        p.host = target.host;
+        p.port = target.port;
+        p.token = tokens.issue(room.id, lifetime);
+        room.host.send(p);
+        migrated.put(room.id, target);
+        migrating++;
+      } else room.message(MessageType.serverClosing);
+    }
+    Log.info("Draining the server... @ rooms are migrating to @, @ others will be closed in @s.",
+             migrating, target == null ? "nowhere" : target, rooms.size - migrating, ClajConfig.drainWait.get());
+
+    long deadline = Time.millis() + lifetime;
+    drainTask = routines.schedule(new Runnable() {
+      public void run() {
+        if (!draining) return;
+        if (!rooms.isEmpty() && Time.millis() < deadline) {
+          drainTask = routines.schedule(this, 1f);
+          return;
+        }
+        Log.info("Server drained, @ rooms left.", rooms.size);
+        closed = true;
+        clearAndStop();
+        if (stopped != null) stopped.run();
+      }
+    }, 1f);
+  }
+
+  /** Stops draining. Rooms already migrated are not moved back. */
+  public void cancelDrain() {
+    if (!draining) return;
+    if (drainTask != null) drainTask.cancel();
+    draining = false;
+    drainTarget = null;
+  }
+
+  public boolean isDraining() {
+    return draining;
+  }
+
+  /** @return the relay where rooms are migrated, or {@code null}. */
+  public PeerMonitor.Peer drainTarget() {
+    return drainTarget;
+  }
+
+  /** @return the number of rooms being migrated, or already migrated, while draining. */
+  public int migratedRooms() {
+    return migrated.size;
+  }
+
   public void closeRooms() { closeRooms(CloseReason.serverClosed); }
   public void closeRooms(CloseReason reason) {
-    packetQueue.clear();
+    joinQueues.clear();
     routines.clearCaches((c, r) -> rejectRoomInfo(c, getRoom(r), false));
     rooms.eachValue(r -> r.close(reason));
     rooms.clear();
@@ -584,8 +1080,20 @@ public class ClajRelay extends Server implements ApplicationListener {
   }
 
   /** Creates a room with it's associated caches. */
-  public ClajRoom createRoom(ClajConnection host, ClajType type) {
-    ClajRoom room = newRoom(host, type);
+  public ClajRoom createRoom(ClajConnection host, ClajType type) { return createRoom(host, type, 0); }
+  /** @param features {@link ClajFeature features} enabled for the room. */
+  public ClajRoom createRoom(ClajConnection host, ClajType type, int features) {
+    return createRoom(host, type, features, 0);
+  }
+  /** @param roomId the id to use, must not be already used. {@code 0} to generate one. */
+  public ClajRoom createRoom(ClajConnection host, ClajType type, int features, long roomId) {
+    ClajRoom room = roomId == 0 ? newRoom(host, type) : new ClajRoom(roomId, host, type);
+    room.features = features;
+    if (ClajFeature.resume.in(features)) room.resumeToken = tokens.random();
+    room.shard = shardOf(host);
+    room.batchQueue = batchedRooms;
+    if (ClajConfig.idleInterval.get() > 0) room.idleQueue = idleRooms;
+    room.egress = egress;
     rooms.put(room.id, room);
     if (type != null) types.get(type, LongMap::new).put(room.id, room);
     room.create();
@@ -647,12 +1155,20 @@ public class ClajRelay extends Server implements ApplicationListener {
     clientsInRooms++;
   }
 
-  /** @return whether client was the host. If so the room will be closed. */
+  /**
+   * @return whether client was the host. If so the room will be closed,
+   *         or kept for {@link ClajConfig#hostGrace} if the host can re-attach.
+   */
   public boolean removeClient(ClajConnection con, DcReason reason) {
     if (con == null) return false;
     removeQueue(con);
     routines.clearClientCache(con);
     ClajRoom room = con.room;
+    if (room != null && room.isHost(con) && ClajFeature.resume.in(room.features) &&
+        ClajConfig.hostGrace.get() > 0 && !closed) {
+      loseHost(room);
+      return true;
+    }
     if (room != null) {
       room.disconnected(con, reason);
       // Close the room if it was the host
@@ -669,6 +1185,55 @@ public class ClajRelay extends Server implements ApplicationListener {
     return false;
   }
 
+  /** Keeps the room for {@link ClajConfig#hostGrace}, then closes it if the host has not re-attached. */
+  protected void loseHost(ClajRoom room) {
+    room.hostLost();
+    long lostAt = room.hostLostAt;
+    routines.schedule(() -> {
+      if (room.isClosed() || !room.isHostLost() || room.hostLostAt != lostAt) return;
+      closeRoom(room, CloseReason.error);
+      info("Room @ closed because its host has not come back.", room.sid);
+    }, ClajConfig.hostGrace.get());
+  }
+
+  /**
+   * Re-attaches the connection as host of the room, if the room lost its host and the token is valid.
+   * @return whether the room was resumed.
+   */
+  protected boolean resumeRoom(ClajConnection connection, long roomId, long token) {
+    ClajRoom room = getRoom(roomId);
+    if (room == null || !room.isHostLost() || connection.room != null) return false;
+    if (token == 0 || token != room.resumeToken) {
+      warn("Connection @ tried to re-attach to the room @ with an invalid token.", connection.sid, room.sid);
+      return false;
+    }
+    if (room.hasBacklogOverflow()) {
+      closeRoom(room, CloseReason.error);
+      warn("Room @ closed because too many packets were kept while its host was lost.", room.sid);
+      return false;
+    }
+    // The host can come back from another address
+    routines.getAddressRate(room.host).removeRoom();
+    routines.getAddressRate(connection).addRoom();
+    room.resume(connection, tokens.random(), shardOf(connection));
+    info("Room @ resumed by connection @, after @ms.", room.sid, connection.sid,
+         Time.timeSinceMillis(room.hostLostAt));
+    return true;
+  }
+
+  /** Restores the configuration and state of a saved room, and tells the host that previous clients are gone. */
+  protected void reclaimRoom(ClajRoom room, RoomSnapshot.Entry saved) {
+    setRoomConfiguration(room, saved.isPublic, saved.isProtected, saved.password, saved.canRequestState,
+                         saved.maxClients);
+    if (saved.state != null) setRoomState(room, saved.state);
+    for (int id : saved.clients) {
+      ConnectionClosedPacket p = new ConnectionClosedPacket();
+      p.conID = id;
+      p.reason = DcReason.closed;
+      room.host.send(p);
+    }
+  }
+
   public void setRoomConfiguration(ClajRoom room, boolean isPublic, boolean isProtected, short password,
                                    boolean requestState, int maxClients) {
     room.setConfiguration(isPublic, isProtected, password, requestState, maxClients);
@@ -754,58 +1319,132 @@ public class ClajRelay extends Server implements ApplicationListener {
    */
   public boolean checkRateLimit(ClajConnection con) {
     if (con == null) return true;
-    int limit = con.isRoomHost() ? ClajConfig.hostSpamLimit.get() * con.room.clients.size : ClajConfig.spamLimit.get();
+    ClajRoom room = con.room;
+    boolean isHost = room != null && room.isHost(con);
+    int limit = isHost ? ClajConfig.hostSpamLimit.get() * room.routes().size : ClajConfig.spamLimit.get();
     boolean isRated = limit > 0 && !con.packetRate.allow(3000L, limit);
     if (isRated) {
-      if (con.isRoomHost()) rejectRateLimitedHost(con.room);
+      if (isHost) rejectRateLimitedHost(room);
       else rejectRateLimitedClient(con);
     }
     return !isRated;
   }
 
-  public boolean addQueue(ClajConnection con, RawPacket packet) {
-    return addQueue(con.connection, packet);
+  /**
+   * Byte quotas of the address and the room of the connection, for relayed packets. <br>
+   * Over quota, packets are delayed up to the {@link ClajConfig#shapingDelay shaping delay}, then dropped.
+   * The connection is kicked if too many are dropped. Called by the network thread.
+   * @return whether the packet can be handled now, else it was delayed or dropped.
+   */
+  public boolean checkByteQuota(ClajConnection con, Object object) {
+    if (!(object instanceof Packet packet)) return true;
+    ClajRoom room = con.room;
+    int size = quotaSize(room, packet);
+    long delay = 0;
+
+    if (size > 0) {
+      long ipRate = ClajConfig.ipByteRate.get() * 1024L, roomRate = ClajConfig.roomByteRate.get() * 1024L;
+      TokenBucket ipQuota = ipRate > 0 ? con.addressQuota : null;
+      TokenBucket roomQuota = roomRate > 0 && room != null ? room.byteQuota : null;
+      if (ipQuota != null) {
+        ipQuota.refill(ipRate, ClajConfig.ipByteBurst.get() * 1024L);
+        delay = ipQuota.delay(ipRate, size);
+      }
+      if (roomQuota != null) {
+        roomQuota.refill(roomRate, ClajConfig.roomByteBurst.get() * 1024L);
+        delay = Math.max(delay, roomQuota.delay(roomRate, size));
+      }
+
+      if (delay > ClajConfig.shapingDelay.get() * 1_000_000L) {
+        free(packet);
+        int limit = ClajConfig.quotaDropLimit.get();
+        if (limit > 0 && !con.quotaDropRate.allow(3000L, limit)) {
+          if (room != null && room.isHost(con)) rejectRateLimitedHost(room);
+          else rejectRateLimitedClient(con);
+        }
+        return false;
+      }
+      if (ipQuota != null) ipQuota.take(size);
+      if (roomQuota != null) roomQuota.take(size);
+    }
+
+    if (delay <= 0 && !con.isShaping()) return true;
+    delay(con, packet, delay);
+    return false;
+  }
+
+  /** @return the size the relayed packet will take on the egress, or {@code 0} if not relayed. (in bytes) */
+  protected static int quotaSize(ClajRoom room, Packet packet) {
+    if (packet instanceof RawPacket raw) return raw.data.remaining();
+    if (packet instanceof ConnectionPacketMulticastPacket multicast) {
+      int targets = !multicast.exclude ? multicast.count :
+                    room == null ? 0 : Math.max(0, room.routes().size - multicast.count);
+      return multicast.raw == null ? 0 : multicast.raw.data.remaining() * targets;
+    }
+    if (packet instanceof ConnectionPacketWrapPacket wrap) return wrap.raw == null ? 0 : wrap.raw.data.remaining();
+    if (packet instanceof ConnectionPacketBatchPacket batch) {
+      int size = 0;
+      for (int i=0; i<batch.packets.size; i++) size += quotaSize(room, batch.packets.items[i]);
+      return size;
+    }
+    return 0;
+  }
+
+  /**
+   * Delays the packet of the connection, it will be handled by the main thread after the delay. (in ns) <br>
+   * Next packets are delayed too until then, to keep their order. Called by the network thread.
+   */
+  protected void delay(ClajConnection con, Packet packet, long delay) {
+    // Throw away unwanted packets, like the receiver
+    if (!packet.allow(true)) {
+      free(packet);
+      return;
+    }
+    // Same as packets posted by a direct listener, released by their handler
+    if (receiver.hasDirectListener(packet)) con.hold();
+    if (con.delay(packet.detach(), delay)) {
+      long fence = fenceOf(con);
+      Core.app.post(() -> {
+        awaitFence(con, fence);
+        drainDelayed(con);
+      });
+    }
+  }
+
+  /** Handles the delayed packets that are due, and schedules the next ones. Called by the main thread. */
+  protected void drainDelayed(ClajConnection con) {
+    long wait = con.drainDelayed(p -> receiver.received(con.connection, p));
+    if (wait > 0) routines.schedule(() -> drainDelayed(con), wait / 1_000_000_000f);
   }
-  /** @return whether a slot was found or not. */
-  public boolean addQueue(Connection con, RawPacket packet) {
-    if (packet.data.remaining() >= packetSizeInQueue) {
+
+  /** @return whether the packet was queued or not. */
+  public boolean addQueue(ClajConnection con, RawPacket packet) {
+    if (packet.data.remaining() > joinQueues.budget()) {
       removeQueue(con);
       con.close(DcReason.error);
-      Log.debug("Connection @ kicked for sending too big packets in the queue.", AddressUtil.encodeId(con));
+      Log.debug("Connection @ kicked for sending too big packets in the queue.", con.sid);
       return false;
     }
-
-    RawPacket[] queue = packetQueue.get(con.getID(), () -> new RawPacket[packetQueueSize]);
-    for (int i=0; i<queue.length; i++) {
-      if (queue[i] == null) {
-        queue[i] = packet;
-        return true;
-      }
-    }
-    return false;
+    return joinQueues.add(con, packet);
   }
 
   /** @return whether a queue was removed or not. */
   public boolean removeQueue(ClajConnection con) {
-    return packetQueue.remove(con.id) != null;
+    return removeQueue(con.id);
   }
 
   /** @return whether a queue was removed or not. */
   public boolean removeQueue(Connection con) {
-    return packetQueue.remove(con.getID()) != null;
+    return removeQueue(con.getID());
+  }
+
+  protected boolean removeQueue(int conId) {
+    return joinQueues.remove(conId);
   }
 
   /** @return whether the queue has been send to the room host, or not (because no packet was queued). */
   public boolean handleQueue(ClajConnection con, ClajRoom room) {
-    RawPacket[] queue = packetQueue.remove(con.id);
-    if (queue != null) {
-      Log.debug("Sending queued packets of connection @ to room host.", con.sid);
-      for (RawPacket element : queue) {
-        if (element != null) room.received(con.connection, element);
-      }
-      return true;
-    }
-    return false;
+    return joinQueues.flush(con.id, p -> room.received(con.connection, p));
   }
 
   // end region
@@ -842,7 +1481,8 @@ public class ClajRelay extends Server implements ApplicationListener {
   public void rejectRateLimitedHost(ClajRoom room) {
     if (room == null) return;
     // We cannot close the room now, so just kick everyone to be safe and close after
-    for (ClajConnection c : room.clients.values()) c.close();
+    // Own iterator because the map iterators are shared and this is called from the network thread
+    for (ClajConnection c : new IntMap.Values<>(room.routes())) c.close();
     Core.app.post(() -> {
       closeRoom(room, CloseReason.spam);
       warn("Room @ closed for packet spamming.", room.sid);
@@ -858,6 +1498,50 @@ public class ClajRelay extends Server implements ApplicationListener {
     connection.close();
   }
 
+  /**
+   * Redirects the room creation to the least loaded peer relay, if the host supports it and one is available.
+   * Else rejects it as {@link CloseReason#serverFull}.
+   */
+  public void rejectFullRoomCreation(ClajConnection connection, int features) {
+    PeerMonitor.Peer peer = ClajFeature.redirect.in(features) ? peers.best() : null;
+    if (peer == null) {
+      rejectRoomCreation(connection, CloseReason.serverFull);
+      return;
+    }
+    Events.fire(new RoomCreationRejectedEvent(connection, CloseReason.serverFull));
+    redirect(connection, peer.host, peer.port);
+    info("Connection @ redirected to the peer relay @.", connection.sid, peer);
+  }
+
+  /** Sends the address of another relay to the connection, then closes it. */
+  public void redirect(ClajConnection connection, String host, int port) {
+    ServerRedirectPacket p = new ServerRedirectPacket();
+    p.host = host;
+    p.port = port;
+    connection.send(p);
+    connection.close();
+  }
+
+  /**
+   * Redirects the connection to the relay owning the room, if known.
+   * Which is the relay where the room was migrated, or the cluster node that created it.
+   * @return whether the connection was redirected.
+   */
+  protected boolean redirectToOwner(ClajConnection connection, long roomId) {
+    PeerMonitor.Peer moved = migrated.get(roomId);
+    if (moved != null) {
+      redirect(connection, moved.host, moved.port);
+      info("Connection @ redirected to @, where the room @ was migrated.", connection.sid, moved,
+           Strings.longToBase64(roomId));
+      return true;
+    }
+    ClusterDirectory.Node owner = cluster.ownerOf(roomId);
+    if (owner == null) return false;
+    redirect(connection, owner.host, owner.port);
+    info("Connection @ redirected to @, owning the room @.", connection.sid, owner, Strings.longToBase64(roomId));
+    return true;
+  }
+
   public void rejectRoomJoin(ClajConnection connection, ClajRoom room, RejectReason reason) {
     rejectRoomJoin(connection, room, room.id, reason);
   }
@@ -870,9 +1554,12 @@ public class ClajRelay extends Server implements ApplicationListener {
     connection.close();
   }
 
-  public void acceptJoinRequest(ClajConnection connection, ClajRoom room) {
+  public void acceptJoinRequest(ClajConnection connection, ClajRoom room) { acceptJoinRequest(connection, room, false); }
+  /** @param handoff whether the connection will be added to the room. */
+  public void acceptJoinRequest(ClajConnection connection, ClajRoom room, boolean handoff) {
     RoomJoinAcceptedPacket p = new RoomJoinAcceptedPacket();
     p.roomId = room.id;
+    p.handoff = handoff;
     connection.send(p);
     Events.fire(new ConnectionPreJoinEvent(connection, room));
   }
@@ -896,11 +1583,47 @@ public class ClajRelay extends Server implements ApplicationListener {
     return clientsInRooms;
   }
 
+  /** @return the {@link ClajFeature features} that can be enabled for rooms. */
+  public int supportedFeatures() {
+    int features = ClajFeature.of(ClajFeature.all);
+    if (ClajConfig.blobCacheSize.get() <= 0) features &= ~ClajFeature.blobCache.mask();
+    if (ClajConfig.idleInterval.get() <= 0) features &= ~ClajFeature.idleSet.mask();
+    if (ClajConfig.latencyInterval.get() <= 0) features &= ~ClajFeature.latency.mask();
+    return features;
+  }
+
+  /**
+   * Writes the answer of a discovery request. Called by the network thread. <br>
+   * Figures are read without synchronization, so they can be a bit off.
+   */
+  protected ByteBuffer writeServerInfo() {
+    ServerInfoPacket p = infoPacket;
+    p.version = ClajVars.version.majorVersion;
+    p.hasLoad = true;
+    p.rooms = rooms.size;
+    p.maxRooms = Math.max(0, ClajConfig.maxRooms.get());
+    // Report as full, so peers doesn't redirect rooms here
+    if (draining) p.maxRooms = p.rooms = Math.max(1, p.rooms);
+    p.connections = connections.size;
+    p.maxConnections = Math.max(0, ClajConfig.maxConnections.get());
+    p.egress = networkSpeed == null ? 0 : (int)(networkSpeed.uploadSpeed() / 1024);
+    p.capacity = admission.isEnabled() ? ClajConfig.linkCapacity.get() : 0;
+    p.node = ClusterDirectory.localNode();
+    infoBuff.clear();
+    infoBuff.put(ClajNet.id);
+    p.write(infoWrite);
+    return (ByteBuffer)infoBuff.flip();
+  }
+
+
   public long newRoomId() {
     long id;
     /* re-roll if 0 because it's used to specify an uncreated room. */
-    do { id = Mathf.rand.nextLong(); }
-    while (id == 0 || rooms.containsKey(id));
+    int node = ClusterDirectory.localNode();
+    do {
+      id = Mathf.rand.nextLong();
+      if (node != 0) id = ClusterDirectory.withNode(id, node);
+    } while (id == 0 || rooms.containsKey(id));
     return id;
   }
 
@@ -20,11 +20,17 @@
 package com.xpdustry.claj.server;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.atomic.LongAdder;
 
 import arc.Events;
 import arc.math.Mathf;
 import arc.net.*;
 import arc.struct.IntMap;
+import arc.struct.IntSet;
+import arc.struct.LongMap;
+import arc.struct.Seq;
 import arc.util.Ratekeeper;
 import arc.util.Threads;
 import arc.util.Time;
@@ -32,9 +38,13 @@ import arc.util.Time;
 import com.xpdustry.claj.common.packets.*;
 import com.xpdustry.claj.common.status.*;
 import com.xpdustry.claj.common.util.AddressUtil;
+import com.xpdustry.claj.common.util.BufferPool;
+import com.xpdustry.claj.common.util.Compression;
 import com.xpdustry.claj.common.util.Strings;
+import com.xpdustry.claj.server.BlobStore.Blob;
 import com.xpdustry.claj.server.ClajEvents.*;
 import com.xpdustry.claj.server.util.NetworkSpeed;
+import com.xpdustry.claj.server.util.TokenBucket;
 
 
 public class ClajRoom implements NetListener {
@@ -43,9 +53,14 @@ public class ClajRoom implements NetListener {
   private static final ThreadLocal<ConnectionClosedPacket> ccp = Threads.local(ConnectionClosedPacket::new);
   private static final ThreadLocal<ConnectionPacketWrapPacket> cwp = Threads.local(ConnectionPacketWrapPacket::new);
   private static final ThreadLocal<ConnectionIdlingPacket> cip = Threads.local(ConnectionIdlingPacket::new);
+  private static final ThreadLocal<BlobStatePacket> bsp = Threads.local(BlobStatePacket::new);
+  private static final ThreadLocal<ConnectionCongestionPacket> cgp = Threads.local(ConnectionCongestionPacket::new);
+  private static final ThreadLocal<ConnectionIdleSetPacket> isp = Threads.local(ConnectionIdleSetPacket::new);
+  private static final ThreadLocal<ConnectionLatencyPacket> clp = Threads.local(ConnectionLatencyPacket::new);
 
 
-  protected boolean closed;
+  /** Volatile because it is also read by the network thread, for direct forwarding. */
+  protected volatile boolean closed;
 
   /** The room id. */
   public final long id;
@@ -54,12 +69,64 @@ public class ClajRoom implements NetListener {
    * @see com.xpdustry.claj.api.ClajLink
    */
   public final String sid;
-  /** The host connection of this room. */
-  public final ClajConnection host;
+  /** The host connection of this room. Replaced when the host re-attaches after losing its connection. */
+  public volatile ClajConnection host;
   /** Using IntMap instead of Seq for faster search. */
   public final IntMap<ClajConnection> clients = new IntMap<>();
+  /**
+   * Copy of {@link #clients} that can be safely read by the network thread. <br>
+   * Replaced, and never modified, at each change of {@link #clients}.
+   */
+  protected volatile IntMap<ClajConnection> routes = new IntMap<>();
+  /** Shard forwarding the traffic of this room. {@code null} to forward on the network thread. */
+  protected volatile RelayShard shard;
+  /** Pending client packets for the host, when {@link ClajFeature#batch} is enabled. Guarded by {@link #batchLock}. */
+  protected ByteBuffer batch;
+  protected final Object batchLock = new Object();
+  /** Where the room is queued when a batch is started, to be flushed later. {@code null} to not batch. */
+  protected volatile Queue<ClajRoom> batchQueue;
+  /** Clients that became idle since the last notification, when {@link ClajFeature#idleSet} is enabled. */
+  protected final IntSet idles = new IntSet();
+  /** Whether the room is in the {@link #idleQueue}. Guarded by {@link #idles}. */
+  protected boolean idleQueued;
+  /** Where the room is queued to have its {@link #idles} sent. Set by the relay. */
+  protected volatile Queue<ClajRoom> idleQueue;
+  /**
+   * Clients by slot, when {@link ClajFeature#compactWrap} is enabled. Published like {@link #routes}. <br>
+   * Freed slots are reused after {@link #slotReuseDelay}, so late packets of the host cannot reach a new client.
+   */
+  protected volatile ClajConnection[] slots = {};
+  /** Freed slots with their release time, in the order of release. */
+  protected final Seq<long[]> freedSlots = new Seq<>();
+  /** Delay before a freed slot can be reused. (in ms) */
+  public static long slotReuseDelay = 10_000;
   /** For debugging, to know how many packets were transferred from a client to a host, and vice versa. */
   public final NetworkSpeed transferredPackets = new NetworkSpeed(8);
+  /** Blobs cached for this room, when {@link ClajFeature#blobCache} is enabled. Only used by the main thread. */
+  public final BlobStore blobs = new BlobStore(ClajConfig.blobCacheSize.get() * 1024L);
+  /** Blobs being uploaded by the host, by hash. Only used by the main thread. */
+  protected final LongMap<Blob> uploads = new LongMap<>();
+  /** Scheduler of the traffic to clients. {@code null} to send directly. */
+  protected volatile EgressScheduler egress;
+  /** Queue of this room in the {@link #egress}. Created when packets are first scheduled. */
+  protected volatile EgressScheduler.RoomQueue egressQueue;
+  /** Share of the egress bandwidth of this room, relative to other rooms. */
+  public volatile int weight = ClajConfig.roomWeight.get();
+  /** Sizes of wrapped payloads, and their size on the wire, in both directions. (in bytes) */
+  protected final LongAdder payloadBytes = new LongAdder(), wireBytes = new LongAdder();
+  /** Byte quota of the relayed packets of the room. Only used by the network thread. */
+  public final TokenBucket byteQuota = new TokenBucket();
+  /** Token allowing the host to re-attach to the room, when {@link ClajFeature#resume} is enabled. */
+  public long resumeToken;
+  /** Whether the host lost its connection, so packets for it are kept until it re-attaches. */
+  protected volatile boolean hostLost;
+  /** Time the host lost its connection. (in ms) */
+  public long hostLostAt;
+  /** Packets for the host, kept while it is lost. Guarded by itself. */
+  protected final Queue<Packet> backlog = new ArrayDeque<>();
+  protected int backlogBytes;
+  /** Whether packets were dropped because the backlog exceeded {@link ClajConfig#resumeBacklog}. */
+  protected volatile boolean backlogOverflow;
   /** Room state rate-limit. New states will simply be discarded. */
   public final Ratekeeper stateRate = new Ratekeeper();
 
@@ -87,6 +154,8 @@ public class ClajRoom implements NetListener {
   public boolean requestingState;
   /** Room implementation type. Can be {@code null}. */
   public final ClajType type;
+  /** {@link ClajFeature Features} enabled for this room. Sets before {@link #create()}. */
+  public int features;
   /**
    * Maximum number of CLaJ client allowed in this room. <br>
    * {@code 0} means no limit and the value must not be higher that the server limit.
@@ -126,12 +195,15 @@ public class ClajRoom implements NetListener {
   public void connected(ClajConnection connection) {
     if (closed || connection == null || clients.containsKey(connection.id)) return;
 
-    ConnectionJoinPacket p = cjp.get();
+    if (ClajFeature.compactWrap.in(features)) connection.slot = newSlot();
+    ConnectionJoinPacket p = hostLost ? new ConnectionJoinPacket() : cjp.get();
     p.conID = connection.id;
     p.addressHash = AddressUtil.hash(connection.connection);
-    host.send(p); // Assumes the host is still connected
+    p.slot = connection.slot;
+    if (!keep(p, 16)) host.send(p); // Assumes the host is still connected
 
     clients.put(connection.id, connection);
+    updateRoutes(); // must be done before setting the room
     setRoom(connection);
     Events.fire(new ConnectionJoinedEvent(connection, this));
   }
@@ -160,8 +232,18 @@ public class ClajRoom implements NetListener {
     removeRoom(connection);
     ClajConnection con = clients.remove(connection.id);
     if (con == null) return; // In case of the event is received twice
+    freeSlot(con);
+    clearDelivery(con);
+    updateRoutes();
+
+    if (hostLost) {
+      ConnectionClosedPacket p = new ConnectionClosedPacket();
+      p.conID = connection.id;
+      p.reason = reason;
+      keep(p, 8);
 
-    if (host.isConnected()) {
+    } else if (host.isConnected()) {
+      flushBatch(); // keep the order
       ConnectionClosedPacket p = ccp.get();
       p.conID = connection.id;
       p.reason = reason;
@@ -188,7 +270,11 @@ public class ClajRoom implements NetListener {
       removeRoom(connection);
       ClajConnection con = clients.remove(connection.id);
       // To avoid double fire if event is received twice
-      if (con != null) Events.fire(new ConnectionLeftEvent(connection, this));
+      if (con == null) return;
+      freeSlot(con);
+      clearDelivery(con);
+      updateRoutes();
+      Events.fire(new ConnectionLeftEvent(connection, this));
     }
   }
 
@@ -205,8 +291,10 @@ public class ClajRoom implements NetListener {
     if (isHost(connection)) {
       if (object instanceof ConnectionPacketWrapPacket wrap)
         received(connection, wrap);
+      else if (object instanceof ConnectionPacketBatchPacket batch)
+        received(connection, batch);
 
-    } else if (clients.containsKey(connection.getID())) {
+    } else if (routes.containsKey(connection.getID())) {
       if (object instanceof RawPacket raw)
         received(connection, raw);
     }
@@ -219,18 +307,26 @@ public class ClajRoom implements NetListener {
 
   /**
    * Unwraps the packet and sends it to the corresponding connection. <br>
-   * This will notify the host if the connection is not found.
+   * This will notify the host if the connection is not found. <br>
+   * Can be called from the network thread.
    */
   public void received(Connection connection, ConnectionPacketWrapPacket wrap) {
+    if (wrap instanceof ConnectionPacketMulticastPacket multicast) {
+      received(connection, multicast);
+      return;
+    }
     if (closed || !isHost(connection)) return;
-    ClajConnection con = clients.get(wrap.conID);
+    ClajConnection con = wrap.compact ? slot(wrap.slot) : routes.get(wrap.conID);
+
+    countPayload(wrap);
 
     if (con != null && con.isConnected()) {
-      con.send(wrap.raw, wrap.isTCP);
+      send(con, wrap.raw, wrap.isTCP);
+      if (wrap.isTCP && !con.addressed) con.addressed = true;
       transferredPackets.uploadMark();
 
     // Notify that this connection doesn't exist, this case normally never happen
-    } else if (host.isConnected()) {
+    } else if (!wrap.compact && host.isConnected()) {
       ConnectionClosedPacket p = ccp.get();
       p.conID = wrap.conID;
       p.reason = DcReason.error;
@@ -243,19 +339,79 @@ public class ClajRoom implements NetListener {
     received(connection.connection, wrap);
   }
 
+  /** Unwraps and sends all packets of the batch. Can be called from the network thread. */
+  public void received(Connection connection, ConnectionPacketBatchPacket batch) {
+    if (closed || !isHost(connection)) return;
+    for (int i=0; i<batch.packets.size; i++) received(connection, batch.packets.items[i]);
+  }
+
+  /**
+   * Sends the packet to all targeted connections. <br>
+   * This will notify the host if a targeted connection is not found. <br>
+   * Can be called from the network thread.
+   */
+  public void received(Connection connection, ConnectionPacketMulticastPacket packet) {
+    if (closed || !isHost(connection)) return;
+    IntMap<ClajConnection> routes = this.routes;
+    countPayload(packet);
+
+    if (packet.exclude) {
+      for (ClajConnection con : new IntMap.Values<>(routes)) {
+        // Connections never addressed by the host can be unknown by him
+        if (!con.addressed || !packet.targets(con.id) || !con.isConnected()) continue;
+        send(con, packet.raw, packet.isTCP);
+        transferredPackets.uploadMark();
+      }
+      return;
+    }
+
+    for (int i=0; i<packet.count; i++) {
+      int id = packet.targets[i];
+      ClajConnection con = routes.get(id);
+
+      if (con != null && con.isConnected()) {
+        send(con, packet.raw, packet.isTCP);
+        if (packet.isTCP && !con.addressed) con.addressed = true;
+        transferredPackets.uploadMark();
+
+      } else if (host.isConnected()) {
+        ConnectionClosedPacket p = ccp.get();
+        p.conID = id;
+        p.reason = DcReason.error;
+        host.send(p);
+      }
+    }
+  }
+
   /**
    * We never send claj packets to anyone other than the room host,
-   * framework packets are ignored and mindustry packets are saved as raw buffer.
+   * framework packets are ignored and mindustry packets are saved as raw buffer. <br>
+   * Can be called from the network thread.
    */
   public void received(Connection connection, RawPacket raw) {
-    if (closed || connection == null || !host.isConnected() ||
-        !clients.containsKey(connection.getID())) return;
+    if (closed || connection == null || !routes.containsKey(connection.getID())) return;
+    if (hostLost && keep(connection, raw)) {
+      transferredPackets.downloadMark();
+      return;
+    }
+    if (!host.isConnected()) return;
+
+    if (batch(connection.getID(), raw)) {
+      transferredPackets.downloadMark();
+      return;
+    }
+    if (ClajFeature.batch.in(features)) flushBatch(); // keep the order
 
-    //NOTE: ai slop is saying me this can lead to a buffer corruption...
     ConnectionPacketWrapPacket p = cwp.get();
     p.conID = connection.getID();
-    p.raw = raw.data;
-    host.send(p);
+    p.slot = ClajFeature.compactWrap.in(features) ? slotOf(connection) : -1;
+    p.compact = p.slot >= 0;
+    p.compression = ClajFeature.compression.in(features) ? Compression.Level.get(ClajConfig.compression.get()) : null;
+    p.compressThreshold = ClajConfig.compressionThreshold.get();
+    p.raw = raw;
+    host.send(p); // serialized now, so the packet can be released after
+    p.raw = null;
+    countPayload(p);
     transferredPackets.downloadMark();
   }
 
@@ -264,6 +420,167 @@ public class ClajRoom implements NetListener {
     received(connection.connection, raw);
   }
 
+  /** Sends a packet of the host, after the blobs being sent to the connection if any. */
+  protected void send(ClajConnection con, RawPacket raw, boolean tcp) {
+    BlobDelivery delivery = con.delivery;
+    if (delivery != null && delivery.defer(raw, tcp)) return;
+    EgressScheduler egress = this.egress;
+    if (egress != null) egress.send(this, con, raw, tcp);
+    else con.send(raw, tcp);
+  }
+
+  /**
+   * Queues the blob for the connection, and tells the host whether it must upload it. <br>
+   * Packets of the host for this connection are deferred until the blob is sent. Must be called by the main thread.
+   */
+  public void blobOffered(int conID, long hash, int size) {
+    if (closed || !ClajFeature.blobCache.in(features) || !host.isConnected()) return;
+    ClajConnection con = clients.get(conID);
+
+    if (con == null || !con.isConnected()) {
+      // Notify that this connection doesn't exist, like for wrapped packets
+      ConnectionClosedPacket p = ccp.get();
+      p.conID = conID;
+      p.reason = DcReason.error;
+      host.send(p);
+      return;
+    }
+
+    Blob blob = blobs.get(hash);
+    if (blob == null) blob = uploads.get(hash);
+    boolean cached = blob != null;
+    if (!cached) {
+      if (size <= 0 || size > BlobOfferPacket.MAX_SIZE) return;
+      blob = new Blob(hash, size);
+      uploads.put(hash, blob);
+    }
+
+    BlobStatePacket p = bsp.get();
+    p.conID = conID;
+    p.hash = hash;
+    p.cached = cached;
+    host.send(p);
+
+    BlobDelivery delivery = con.delivery;
+    if (delivery == null) con.delivery = delivery = new BlobDelivery(con);
+    delivery.add(blob);
+    delivery.pump();
+  }
+
+  /** Appends a part of a blob uploaded by the host, and caches it once complete. Must be called by the main thread. */
+  public void blobReceived(long hash, ByteBuffer part) {
+    if (closed) return;
+    Blob blob = uploads.get(hash);
+    if (blob == null || !blob.append(part)) return;
+    uploads.remove(hash);
+    if (!blob.isReady() || !blob.isVerified()) return;
+    blobs.put(blob);
+  }
+
+  protected void clearDelivery(ClajConnection con) {
+    BlobDelivery delivery = con.delivery;
+    if (delivery != null) delivery.clear();
+  }
+
+  protected void countPayload(ConnectionPacketWrapPacket wrap) {
+    payloadBytes.add(wrap.payloadSize);
+    wireBytes.add(wrap.wireSize);
+  }
+
+  /** @return the total size of wrapped payloads, in both directions. (in bytes) */
+  public long payloadBytes() {
+    return payloadBytes.sum();
+  }
+
+  /** @return the total size of wrapped payloads on the wire, after compression. (in bytes) */
+  public long wireBytes() {
+    return wireBytes.sum();
+  }
+
+  /** @return the ratio between the wire size and the payload size. {@code 1} means no compression. */
+  public float compressionRatio() {
+    long payload = payloadBytes.sum();
+    return payload == 0 ? 1f : (float)wireBytes.sum() / payload;
+  }
+
+  /** @return the average rate of wrapped payloads since the creation of the room. (in bytes per second) */
+  public float relayRate() {
+    if (createdAt == 0) return 0;
+    return payloadBytes.sum() * 1000f / Math.max(1000, Time.timeSinceMillis(createdAt));
+  }
+
+  /**
+   * Appends the packet to the batch for the host. The batch is flushed when full,
+   * or by the relay after the current network pass.
+   * @return whether the packet was batched.
+   */
+  protected boolean batch(int conID, RawPacket raw) {
+    Queue<ClajRoom> queue = batchQueue;
+    if (queue == null || !ClajFeature.batch.in(features) ||
+        raw.data.remaining() > ConnectionPacketBatchPacket.MAX_SIZE - ConnectionPacketBatchPacket.ENTRY_HEADER)
+      return false;
+
+    synchronized (batchLock) {
+      if (batch != null && ConnectionPacketBatchPacket.add(batch, conID, raw)) return true;
+      flushBatch();
+      batch = BufferPool.shared.obtain(ConnectionPacketBatchPacket.MAX_SIZE);
+      queue.add(this);
+      return ConnectionPacketBatchPacket.add(batch, conID, raw);
+    }
+  }
+
+  /**
+   * Sends the pending batch to the host, if any. Can be called from any thread. <br>
+   * The batch is kept while the host is lost.
+   */
+  public void flushBatch() {
+    if (!hostLost) sendBatch();
+  }
+
+  protected void sendBatch() {
+    synchronized (batchLock) {
+      if (batch == null) return;
+      ByteBuffer buffer = batch;
+      batch = null;
+      try {
+        if (!closed && buffer.position() > 0 && host.isConnected()) {
+          ConnectionPacketBatchPacket p = new ConnectionPacketBatchPacket();
+          buffer.flip();
+          p.entries = buffer;
+          host.send(p); // serialized now, so the buffer can be freed after
+        }
+      } finally { BufferPool.shared.free(buffer); }
+    }
+  }
+
+  /** Notifies the host of a congested client, or that it caught up. Can be called from any thread. */
+  public void congested(ClajConnection connection, boolean congested) {
+    if (closed || !ClajFeature.congestion.in(features) || isHost(connection) || !host.isConnected()) return;
+    ConnectionCongestionPacket p = cgp.get();
+    p.conID = connection.id;
+    p.congested = congested;
+    host.send(p);
+  }
+
+  /**
+   * Sends the return trip time of clients to the host, then requests new measures for the next report. <br>
+   * Called by the main thread.
+   */
+  public void reportLatency() {
+    if (closed || hostLost || clients.isEmpty() || !ClajFeature.latency.in(features) || !host.isConnected()) return;
+    ConnectionLatencyPacket p = clp.get();
+    p.clear();
+    for (ClajConnection con : clients.values()) {
+      int rtt = con.connection.getReturnTripTime();
+      // Not measured yet
+      if (rtt > 0) p.add(con.id, rtt);
+      con.connection.updateReturnTripTime();
+    }
+    if (p.conIDs.isEmpty()) return;
+    flushBatch(); // keep the order
+    host.send(p);
+  }
+
   /** Notifies the host of an idle connection. */
   @Override
   public void idle(Connection connection) {
@@ -273,12 +590,63 @@ public class ClajRoom implements NetListener {
       // Ignore if this is the room host
 
     } else if (host.isConnected() && clients.containsKey(connection.getID())) {
+      // The host will be notified once the blobs are sent
+      BlobDelivery delivery = clients.get(connection.getID()).delivery;
+      if (delivery != null && !delivery.pump()) return;
+      if (queueIdle(connection.getID())) return;
+      flushBatch(); // keep the order
       ConnectionIdlingPacket p = cip.get();
       p.conID = connection.getID();
       host.send(p);
     }
   }
 
+  /**
+   * Notifies the host of an idle connection, from the network thread. <br>
+   * Only possible when idle connections are grouped, and the client doesn't need the main thread.
+   * @return whether the event has been handled.
+   */
+  public boolean idleDirect(ClajConnection connection) {
+    if (closed || isHost(connection)) return true;
+    if (!ClajFeature.idleSet.in(features) || connection.delivery != null || connection.congested) return false;
+    return !routes.containsKey(connection.id) || queueIdle(connection.id);
+  }
+
+  /** @return whether the idle connection has been added to the next {@link ConnectionIdleSetPacket}. */
+  protected boolean queueIdle(int conId) {
+    Queue<ClajRoom> queue = idleQueue;
+    if (queue == null || !ClajFeature.idleSet.in(features)) return false;
+    synchronized (idles) {
+      idles.add(conId);
+      if (idleQueued) return true;
+      idleQueued = true;
+    }
+    queue.add(this);
+    ClajRelay relay = ClajVars.relay;
+    if (relay != null) relay.requestIdleFlush();
+    return true;
+  }
+
+  /** Sends the idle connections to the host in one packet. Called by the main thread. */
+  public void flushIdles() {
+    ConnectionIdleSetPacket p = isp.get();
+    p.conIDs.clear();
+    synchronized (idles) {
+      idleQueued = false;
+      IntSet.IntSetIterator iter = idles.iterator();
+      while (iter.hasNext) {
+        int id = iter.next();
+        // Clients may have left meanwhile
+        if (clients.containsKey(id)) p.conIDs.add(id);
+      }
+      idles.clear();
+    }
+    // Idle events are not worth keeping while the host is lost
+    if (closed || hostLost || p.conIDs.isEmpty() || !host.isConnected()) return;
+    flushBatch(); // keep the order
+    host.send(p);
+  }
+
   /** Notifies the host of an idle connection. */
   public void idle(ClajConnection connection) {
     if (connection == null) return;
@@ -300,11 +668,132 @@ public class ClajRoom implements NetListener {
     // Assume the host is still connected
     RoomLinkPacket p = new RoomLinkPacket();
     p.roomId = id;
+    p.features = features;
+    p.resumeToken = resumeToken;
     host.send(p);
 
     Events.fire(new RoomCreatedEvent(this));
   }
 
+  /**
+   * Keeps the room after the host lost its connection. <br>
+   * Packets for the host are kept, up to {@link ClajConfig#resumeBacklog}, until it
+   * {@link #resume(ClajConnection, long, RelayShard) re-attaches}. Clients stay connected.
+   */
+  public void hostLost() {
+    if (closed || hostLost) return;
+    synchronized (backlog) {
+      hostLost = true;
+      hostLostAt = Time.millis();
+    }
+    removeRoom(host);
+  }
+
+  /**
+   * Re-attaches the host, then sends it the room link and the packets kept while it was lost. <br>
+   * The room is also pinned to the shard of the new host. Must be called by the main thread.
+   * @param token the new {@link #resumeToken}.
+   * @param shard the shard of the new host, {@code null} to forward on the network thread.
+   */
+  public void resume(ClajConnection connection, long token, RelayShard shard) {
+    if (closed || !hostLost) return;
+    RelayShard old = this.shard;
+    if (old != shard) {
+      this.shard = shard;
+      // Packets already given to the old shard must be forwarded before the new one's.
+      // Not while holding the backlog, as the old shard needs it to keep the packets.
+      if (old != null && old.isRunning()) old.await(old.fence());
+    }
+    setRoom(connection);
+    resumeToken = token;
+
+    synchronized (backlog) {
+      host = connection;
+      RoomLinkPacket link = new RoomLinkPacket();
+      link.roomId = id;
+      link.features = features;
+      link.resumeToken = token;
+      connection.send(link);
+
+      // Batched packets came before the kept ones
+      sendBatch();
+      Packet p;
+      while ((p = backlog.poll()) != null) {
+        if (!(p instanceof ConnectionPacketWrapPacket wrap)) {
+          connection.send(p);
+          continue;
+        }
+        try {
+          wrap.compression = ClajFeature.compression.in(features) ?
+                             Compression.Level.get(ClajConfig.compression.get()) : null;
+          wrap.compressThreshold = ClajConfig.compressionThreshold.get();
+          connection.send(wrap);
+          countPayload(wrap);
+        } finally { wrap.raw.release(); }
+      }
+      backlogBytes = 0;
+      hostLost = false;
+    }
+  }
+
+  /** @return whether the host lost its connection, and has not re-attached yet. */
+  public boolean isHostLost() {
+    return hostLost;
+  }
+
+  /** @return whether packets for the host were dropped while it was lost. */
+  public boolean hasBacklogOverflow() {
+    return backlogOverflow;
+  }
+
+  /** @return the size of the packets kept for the host. (in bytes) */
+  public int backlogBytes() {
+    synchronized (backlog) { return backlogBytes; }
+  }
+
+  /** Keeps a copy of the client packet for the host. Can be called from the network thread. */
+  protected boolean keep(Connection connection, RawPacket raw) {
+    ConnectionPacketWrapPacket p = new ConnectionPacketWrapPacket();
+    p.conID = connection.getID();
+    p.slot = ClajFeature.compactWrap.in(features) ? slotOf(connection) : -1;
+    p.compact = p.slot >= 0;
+    p.raw = raw.retain();
+    if (keep(p, raw.data.remaining())) return true;
+    p.raw.release();
+    return false;
+  }
+
+  /**
+   * Keeps the packet for the host, if lost. Packets over the budget are dropped.
+   * @return whether the host is lost, so the packet was kept or dropped.
+   */
+  protected boolean keep(Packet packet, int size) {
+    if (!hostLost) return false;
+    synchronized (backlog) {
+      if (!hostLost) return false;
+      if (backlogOverflow || backlogBytes + size > ClajConfig.resumeBacklog.get() * 1024L) {
+        backlogOverflow = true;
+        if (packet instanceof ConnectionPacketWrapPacket wrap) wrap.raw.release();
+        return true;
+      }
+      backlog.add(packet);
+      backlogBytes += size;
+      return true;
+    }
+  }
+
+  /** Drops the kept packets. */
+  protected void clearBacklog() {
+    synchronized (backlog) {
+      for (Packet p : backlog) {
+        if (p instanceof ConnectionPacketWrapPacket wrap) wrap.raw.release();
+      }
+      backlog.clear();
+      backlogBytes = 0;
+      hostLost = false;
+    }
+  }
+
   /** @return whether the room is closed or not. */
   public boolean isClosed() {
     return closed;
@@ -334,9 +823,75 @@ public class ClajRoom implements NetListener {
     host.close();
     for (ClajConnection c : clients.values()) {
       removeRoom(c);
+      clearDelivery(c);
       c.close();
     }
     clients.clear();
+    updateRoutes();
+    clearBacklog();
+    flushBatch(); // only frees the buffer
+    EgressScheduler egress = this.egress;
+    if (egress != null) egress.remove(this);
+    for (Blob blob : uploads.values()) blob.fail();
+    uploads.clear();
+    blobs.clear();
+  }
+
+  /** Publishes a new copy of {@link #clients}, and of {@link #slots}, for the network thread. */
+  protected void updateRoutes() {
+    routes = clients.isEmpty() ? new IntMap<>() : new IntMap<>(clients);
+
+    if (!ClajFeature.compactWrap.in(features)) return;
+    int size = 0;
+    for (ClajConnection c : clients.values()) size = Math.max(size, c.slot + 1);
+    ClajConnection[] slots = new ClajConnection[size];
+    for (ClajConnection c : clients.values()) {
+      if (c.slot >= 0) slots[c.slot] = c;
+    }
+    this.slots = slots;
+  }
+
+  /**
+   * @return a free slot for a new client. Slots freed since long enough are reused first,
+   *         else a new one is taken. {@code -1} if none is available.
+   */
+  protected int newSlot() {
+    long[] freed = freedSlots.isEmpty() ? null : freedSlots.first();
+    if (freed != null && Time.timeSinceMillis(freed[1]) >= slotReuseDelay) {
+      freedSlots.remove(0);
+      return (int)freed[0];
+    }
+    int next = 0;
+    for (ClajConnection c : clients.values()) next = Math.max(next, c.slot + 1);
+    for (long[] f : freedSlots) next = Math.max(next, (int)f[0] + 1);
+    return next > 0xffff ? -1 : next;
+  }
+
+  protected void freeSlot(ClajConnection con) {
+    if (con.slot < 0) return;
+    freedSlots.add(new long[]{con.slot, Time.millis()});
+    con.slot = -1;
+  }
+
+  /** @return the client with the specified slot, or {@code null}. Can be called from any thread. */
+  public ClajConnection slot(int slot) {
+    ClajConnection[] slots = this.slots;
+    return slot >= 0 && slot < slots.length ? slots[slot] : null;
+  }
+
+  /** @return the slot of the connection, or {@code -1}. */
+  protected static int slotOf(Connection connection) {
+    ClajConnection con = ClajRelay.toClajCon(connection);
+    return con == null ? -1 : con.slot;
+  }
+
+  public RelayShard shard() {
+    return shard;
+  }
+
+  /** @return a read-only view of {@link #clients} that can be used from any thread. */
+  public IntMap<ClajConnection> routes() {
+    return routes;
   }
 
   /** Sends a message to the host and clients. */
@@ -20,6 +20,8 @@
 package com.xpdustry.claj.server;
 
 import java.net.InetAddress;
+
+import arc.Core;
 import arc.func.Cons;
 import arc.func.Cons2;
 import arc.struct.*;
@@ -29,33 +31,59 @@ import com.xpdustry.claj.common.net.stream.PreparedStream;
 import com.xpdustry.claj.common.net.stream.StreamSender;
 import com.xpdustry.claj.common.packets.RoomListPacket;
 import com.xpdustry.claj.common.status.ClajType;
+import com.xpdustry.claj.server.util.ClajApplication;
+import com.xpdustry.claj.server.util.TimingWheel;
+import com.xpdustry.claj.server.util.TokenBucket;
 
 
-//TODO: find a way to get rid of timers.
-/** Class holding caches and CLaJ routines, such as cleaning AddressRater, closing afk rooms, pending request, etc. */
+/**
+ * Class holding caches and CLaJ routines, such as cleaning AddressRater, closing afk rooms, pending request, etc.
+ * <p>
+ * Timed routines are scheduled in {@link #timers}, which is advanced by the main thread. So all the routines
+ * are run in the main thread.
+ */
 public class ClajRoutines {
+  /** Timers of routines. Tick of 100ms, with a round of ~51s. */
+  public final TimingWheel timers = new TimingWheel(100, 512);
   /** Used to calculate whether a room is afk or not. */
-  public final LongMap<Timer.Task> afk = new LongMap<>(16);
+  public final LongMap<TimingWheel.Task> afk = new LongMap<>(16);
   /** List of join, info and list request rates by ip. */
   public final ObjectMap<InetAddress, AddressRater> rates = new ObjectMap<>(32);
   /** List of client who requested the state of a room that was outdated.*/
   public final LongMap<Seq<ClajConnection>> pendingInfoRequests = new LongMap<>(16);
   /** Use cleaner task instead of storing the {@link #pendingInfoRequests} invert, to avoid having to many caches. */
-  public final LongMap<Timer.Task> pendingInfoTasks = new LongMap<>(16);
+  public final LongMap<TimingWheel.Task> pendingInfoTasks = new LongMap<>(16);
   /** Cache for room list requests. */
   public final ObjectMap<ClajType, CachedRoomList> listCache = new ObjectMap<>(8);
 
+  /** Runs expired routines. Must be called by the main thread. */
+  public void update() {
+    timers.advance(Time.nanos());
+    requestUpdate();
+  }
+
+  /** Asks the main loop to wake up when the earliest routine expires. */
+  protected void requestUpdate() {
+    long delay = timers.nextDeadlineDelay();
+    if (delay >= 0 && Core.app instanceof ClajApplication app) app.requestUpdate(delay);
+  }
+
+  /** Schedules a task on the main thread. (delay in seconds) */
+  public TimingWheel.Task schedule(Runnable task, float delay) {
+    return timers.schedule(task, delay);
+  }
+
   // region cache cleaning
 
   public void clearCaches(Cons2<ClajConnection, Long> infoRejection) {
     pendingInfoRequests.forEach(e -> e.value.each(c -> infoRejection.get(c, e.key)));
     pendingInfoRequests.clear();
-    pendingInfoTasks.eachValue(Timer.Task::cancel);
+    pendingInfoTasks.eachValue(TimingWheel.Task::cancel);
     pendingInfoTasks.clear();
     listCache.each((_, c) -> c.send());
     listCache.clear();
     rates.clear();
-    afk.eachValue(Timer.Task::cancel);
+    afk.eachValue(TimingWheel.Task::cancel);
     afk.clear();
   }
 
@@ -90,7 +118,7 @@ public class ClajRoutines {
     if (!room.clients.isEmpty()) return;
     int life = ClajConfig.afkTime.get();
     if (life <= 0) return;
-    Timer.Task old = afk.put(room.id, Timer.schedule(() -> {
+    TimingWheel.Task old = afk.put(room.id, timers.schedule(() -> {
       afk.remove(room.id);
       afkClose.run();
     }, life * 60));
@@ -98,7 +126,7 @@ public class ClajRoutines {
   }
 
   public void cancelRoomAfk(ClajRoom room) {
-    Timer.Task task = afk.remove(room.id);
+    TimingWheel.Task task = afk.remove(room.id);
     if (task != null) task.cancel();
   }
 
@@ -108,9 +136,9 @@ public class ClajRoutines {
   public boolean requestRoomState(ClajRoom room, Cons<ClajRoom> sendState) {
     if (!room.requestState()) return false;
     int timeout = ClajConfig.stateTimeout.get();
-    Timer.Task old;
+    TimingWheel.Task old;
     if (timeout > 0) {
-      old = pendingInfoTasks.put(room.id, Timer.schedule(() -> {
+      old = pendingInfoTasks.put(room.id, timers.schedule(() -> {
         cancelRoomInfoTask(room);
         sendState.get(room);
       }, timeout));
@@ -124,7 +152,7 @@ public class ClajRoutines {
   }
 
   public void cancelRoomInfoTask(ClajRoom room) {
-    Timer.Task task = pendingInfoTasks.remove(room.id);
+    TimingWheel.Task task = pendingInfoTasks.remove(room.id);
     if (task != null) task.cancel();
   }
 
@@ -194,13 +222,13 @@ public class ClajRoutines {
   }
 
 
-  protected static class CachedRoomList {
+  protected class CachedRoomList {
     public final ClajType type;
     public final RoomListPacket packet;
     public long lastUpdate;
     public final Seq<ClajConnection> pending = new Seq<>(false, 16);
     public final ObjectSet<Long> requesting = new ObjectSet<>();
-    public Timer.Task refreshTask;
+    public TimingWheel.Task refreshTask;
     private PreparedStream cachedStream;
     private boolean streamDirty = true;
 
@@ -248,7 +276,7 @@ public class ClajRoutines {
         done.run();
         return;
       }
-      refreshTask = Timer.schedule(() -> {
+      refreshTask = timers.schedule(() -> {
         refreshTask = null;
         done.run();
       }, timeout);
@@ -301,8 +329,10 @@ public class ClajRoutines {
     public final Ratekeeper infoRate = new Ratekeeper();
     public final Ratekeeper listRate = new Ratekeeper();
     public final Ratekeeper createRate = new Ratekeeper();
+    /** Byte quota shared by the connections of the address. Only used by the network thread. */
+    public final TokenBucket bytes = new TokenBucket();
     protected final IntSet connections = new IntSet(8);
-    protected Timer.Task clean;
+    protected TimingWheel.Task clean;
     protected int rooms;
 
     public AddressRater(InetAddress address) {
@@ -322,7 +352,7 @@ public class ClajRoutines {
       if (clean != null) clean.cancel();
       int life = ClajConfig.raterLifetime.get();
       if (life <= 0) return;
-      clean = Timer.schedule(() -> {
+      clean = timers.schedule(() -> {
         clean = null;
         rates.remove(address);
       }, life);
@@ -351,6 +381,11 @@ public class ClajRoutines {
       return true;
     }
 
+    /** Counts a room taken over by this address, without rate limit. */
+    public void addRoom() {
+      rooms++;
+    }
+
     public void removeRoom() {
       if (rooms > 0) rooms--;
     }
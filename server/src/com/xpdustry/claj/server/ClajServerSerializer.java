@@ -41,12 +41,18 @@ public class ClajServerSerializer implements NetSerializer, FrameworkSerializer
     ConnectionPacketWrapPacket.serializer = new ConnectionPacketWrapPacket.Serializer() {
       @Override
       public void read(ConnectionPacketWrapPacket packet, ByteBufferInput read) {
-        packet.raw = RawPacket.copyRemaining(read);
+        packet.raw = RawPacket.borrow(read);
       }
 
       @Override
       public void write(ConnectionPacketWrapPacket packet, ByteBufferOutput write) {
-        RawPacket.write(packet.raw, write);
+        packet.raw.write(write);
+      }
+
+      /** Read directly from the network buffer, to avoid copies. */
+      @Override
+      public boolean isDelayed() {
+        return false;
       }
     };
   }
@@ -68,6 +74,7 @@ public class ClajServerSerializer implements NetSerializer, FrameworkSerializer
       case ClajNet.frameworkId -> readFramework(buffer);
       case ClajNet.oldId -> readString(buffer);
       case ClajNet.id -> readClaj(buffer);
+      case ClajNet.wrapId -> readCompact(buffer);
       // Non-claj packets are saved as raw buffer, to avoid re-serialization
       default -> readRaw(buffer);
     };
@@ -88,10 +95,22 @@ public class ClajServerSerializer implements NetSerializer, FrameworkSerializer
     return packet;
   }
 
+  public ConnectionPacketWrapPacket readCompact(ByteBuffer buffer) {
+    ConnectionPacketWrapPacket packet = new ConnectionPacketWrapPacket();
+    packet.compact = true;
+    ByteBufferInput in = read.get();
+    in.buffer = buffer;
+    packet.read(in);
+    return packet;
+  }
+
+  /**
+   * The returned packet is a view of the network buffer, only valid during the receive call.
+   * It will be copied if passed to another thread, or {@link RawPacket#retain() retained}.
+   */
   public RawPacket readRaw(ByteBuffer buffer) {
-    //TODO: buffer pool?
     buffer.position(buffer.position()-1);
-    return new RawPacket(buffer);
+    return RawPacket.borrow(buffer);
   }
 
   @Override
@@ -111,7 +130,8 @@ public class ClajServerSerializer implements NetSerializer, FrameworkSerializer
   public void writeClaj(ByteBuffer buffer, Packet packet) {
     ByteBufferOutput out = write.get();
     out.buffer = buffer;
-    if (!(packet instanceof RawPacket)) buffer.put(ClajNet.id).put(ClajNet.getId(packet));
+    if (packet instanceof ConnectionPacketWrapPacket wrap && wrap.compact) buffer.put(ClajNet.wrapId);
+    else if (!(packet instanceof RawPacket)) buffer.put(ClajNet.id).put(ClajNet.getId(packet));
     packet.write(out);
   }
 
@@ -28,6 +28,7 @@ import arc.util.OS;
 import arc.util.Time;
 
 import com.xpdustry.claj.common.status.ClajVersion;
+import com.xpdustry.claj.server.util.ClajApplication;
 import com.xpdustry.claj.server.util.NetworkSpeed;
 
 
@@ -50,7 +51,7 @@ public class ClajStateSummary {
     majorVersion = ClajVars.version.majorVersion;
     javaVersion = OS.javaVersion;
     uptime = Time.timeSinceMillis(ClajVars.startedAt);
-    tps = Core.graphics.getFramesPerSecond();
+    tps = Core.app instanceof ClajApplication app ? app.updatesPerSecond() : Core.graphics.getFramesPerSecond();
     usedHeap = Core.app.getJavaHeap();
     allocatedHeap = Runtime.getRuntime().totalMemory();
     javaCpuLoad = CpuUsageGetter.processCpuLoad();
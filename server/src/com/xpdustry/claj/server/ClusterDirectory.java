@@ -0,0 +1,115 @@
+/**
+ * This file is part of CLaJ. The system that allows you to play with your friends,
+ * just by creating a room, copying the link and sending it to your friends.
+ * Copyright (c) 2025-2026  Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.xpdustry.claj.server;
+
+import arc.struct.IntMap;
+import arc.util.Time;
+
+
+/**
+ * Directory of the nodes of a relay cluster. <br>
+ * Room ids created in cluster mode carry the id of their node in their highest byte,
+ * so finding the owner of a room only needs the address of its node, and no broadcast.
+ * <p>
+ * Nodes are learned from the discovery answers of the {@link ClajConfig#peers peer relays}, which are gossiped
+ * by the {@link PeerMonitor}. Relays running in the same process can share an instance, as a local stand-in.
+ * <p>
+ * Thread-safe.
+ */
+public class ClusterDirectory {
+  /** Nodes not seen for this time are considered down. (in ms) */
+  public static final long NODE_LIFETIME = 60_000L;
+
+  protected final IntMap<Node> nodes = new IntMap<>();
+
+  /** @return the node id of the local relay, {@code 0} if not in cluster mode. */
+  public static int localNode() {
+    int node = ClajConfig.clusterNode.get();
+    return node > 0 && node <= 0xff ? node : 0;
+  }
+
+  /** @return the node id carried by the room id. */
+  public static int nodeOf(long roomId) {
+    return (int)(roomId >>> 56);
+  }
+
+  /** @return the room id with the node id in its highest byte. */
+  public static long withNode(long roomId, int node) {
+    return roomId & 0x00ff_ffff_ffff_ffffL | (long)node << 56;
+  }
+
+  /** Registers, or refreshes, the address of a node. */
+  public synchronized void put(int node, String host, int port) {
+    if (node <= 0 || node > 0xff || node == localNode()) return;
+    Node entry = nodes.get(node);
+    if (entry == null || !entry.host.equals(host) || entry.port != port)
+      nodes.put(node, entry = new Node(node, host, port));
+    entry.seen = Time.millis();
+  }
+
+  public synchronized void remove(int node) {
+    nodes.remove(node);
+  }
+
+  /** @return the node, or {@code null} if unknown or down. */
+  public synchronized Node get(int node) {
+    Node entry = nodes.get(node);
+    return entry == null || Time.timeSinceMillis(entry.seen) > NODE_LIFETIME ? null : entry;
+  }
+
+  /**
+   * @return the remote node owning the room, or {@code null} if not in cluster mode,
+   *         if the room belongs to this node, or if its node is unknown.
+   */
+  public Node ownerOf(long roomId) {
+    int local = localNode();
+    if (local == 0) return null;
+    int node = nodeOf(roomId);
+    return node == local ? null : get(node);
+  }
+
+  /** @return the known nodes, even those down. */
+  public synchronized Node[] nodes() {
+    Node[] array = new Node[nodes.size];
+    int i = 0;
+    for (Node node : new IntMap.Values<>(nodes)) array[i++] = node;
+    return array;
+  }
+
+
+  public static class Node {
+    public final int id;
+    public final String host;
+    public final int port;
+    /** Last time the node was seen. (in ms) */
+    public volatile long seen;
+
+    public Node(int id, String host, int port) {
+      this.id = id;
+      this.host = host;
+      this.port = port;
+    }
+
+    @Override
+    public String toString() {
+      return host + ":" + port + " (node " + id + ")";
+    }
+  }
+}
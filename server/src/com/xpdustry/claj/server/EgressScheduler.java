@@ -0,0 +1,259 @@
+/**
+ * This file is part of CLaJ. The system that allows you to play with your friends,
+ * just by creating a room, copying the link and sending it to your friends.
+ * Copyright (c) 2025-2026  Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.xpdustry.claj.server;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import arc.struct.Queue;
+import arc.util.Time;
+
+import com.xpdustry.claj.common.packets.RawPacket;
+
+
+/**
+ * Shares the relay egress between rooms with a deficit round robin, when the link capacity is limited. <br>
+ * Each room has its own queue, kept in the room, and gets a share of the bandwidth proportional to its weight.
+ * Unreliable packets of a room, mostly small game state packets, are served before its reliable ones.
+ * <p>
+ * Packets are sent directly while under the capacity and their room has nothing queued.
+ * Queued packets are served by the network thread, at each update.
+ * <p>
+ * Rooms are forwarded by different relay shards, so each queue is guarded by itself,
+ * and the shared tokens are only taken atomically.
+ */
+public class EgressScheduler {
+  /** Bytes a room of weight {@code 1} can send per round. */
+  public static final int QUANTUM = 1500;
+  /** Maximum number of queued unreliable packets per room, the oldest are dropped. */
+  public static final int MAX_UNRELIABLE = 256;
+
+  /** Rooms having queued packets, in round order. Only polled by the network thread. */
+  protected final ConcurrentLinkedQueue<RoomQueue> active = new ConcurrentLinkedQueue<>();
+  protected final AtomicLong tokens = new AtomicLong(), lastRefill = new AtomicLong(Time.nanos());
+  protected volatile boolean pending;
+
+  /** @return the link capacity, {@code 0} if unlimited. (in bytes per second) */
+  public long capacity() {
+    return Math.max(0, ClajConfig.linkCapacity.get() * 1024L);
+  }
+
+  public boolean isEnabled() {
+    return capacity() > 0;
+  }
+
+  /** @return whether packets are waiting to be served. */
+  public boolean isPending() {
+    return pending;
+  }
+
+  /** Sends the packet now, or queues it if the link is saturated. */
+  public void send(ClajRoom room, ClajConnection con, RawPacket raw, boolean tcp) {
+    long capacity = capacity();
+    if (capacity <= 0 && !pending) {
+      con.send(raw, tcp);
+      return;
+    }
+
+    int size = raw.data.remaining();
+    RoomQueue queue = queueOf(room);
+    synchronized (queue) {
+      // The room was closed meanwhile
+      if (queue.removed) return;
+      if (!queue.isEmpty() || !take(size, capacity)) {
+        queue.add(new Item(con, raw.retain(), tcp));
+        if (!queue.active) {
+          queue.active = true;
+          active.add(queue);
+        }
+        pending = true;
+        return;
+      }
+      queue.served += size;
+    }
+    con.send(raw, tcp);
+  }
+
+  /** Serves the queued packets, as much as the capacity allows. Called by the network thread. */
+  public void serve() {
+    if (!pending) return;
+    pending = false;
+    long capacity = capacity();
+    // Limit removed, flush everything
+    if (capacity <= 0) tokens.set(Long.MAX_VALUE);
+
+    RoomQueue queue;
+    while ((queue = active.peek()) != null) {
+      synchronized (queue) {
+        // Already removed from the round
+        if (queue.removed) continue;
+        if (!queue.credited) {
+          queue.deficit += QUANTUM * Math.max(1, queue.room.weight);
+          queue.credited = true;
+        }
+
+        Item item;
+        while ((item = queue.peek()) != null) {
+          int size = item.raw.data.remaining();
+          if (size > queue.deficit) break;
+          if (!take(size, capacity)) {
+            // Continue this round at the next update
+            pending = true;
+            return;
+          }
+          queue.poll();
+          queue.deficit -= size;
+          queue.served += size;
+          try { item.con.send(item.raw, item.tcp); }
+          finally { item.raw.release(); }
+        }
+
+        active.poll();
+        queue.credited = false;
+        if (queue.isEmpty()) {
+          queue.active = false;
+          queue.deficit = 0;
+        } else active.add(queue);
+      }
+    }
+  }
+
+  /** @return whether the tokens for this size were taken. */
+  protected boolean take(int size, long capacity) {
+    refill(capacity);
+    long current;
+    do {
+      current = tokens.get();
+      if (current < size) return false;
+    } while (!tokens.compareAndSet(current, current - size));
+    return true;
+  }
+
+  protected void refill(long capacity) {
+    long now = Time.nanos(), last = lastRefill.get();
+    if (now <= last || !lastRefill.compareAndSet(last, now)) return;
+    if (capacity <= 0) return;
+    long elapsed = Math.min(now - last, 1_000_000_000L);
+    // Allow bursts of 50ms
+    long burst = Math.max(capacity / 20, 65536), added = elapsed * capacity / 1_000_000_000L;
+    tokens.accumulateAndGet(added, (t, a) -> Math.min(burst, t + a));
+  }
+
+  /** @return the queue of the room, created if needed. */
+  protected RoomQueue queueOf(ClajRoom room) {
+    RoomQueue queue = room.egressQueue;
+    if (queue != null) return queue;
+    synchronized (room) {
+      if (room.egressQueue == null) room.egressQueue = new RoomQueue(room);
+      return room.egressQueue;
+    }
+  }
+
+  /** Drops the queue of the room. */
+  public void remove(ClajRoom room) {
+    RoomQueue queue = room.egressQueue;
+    if (queue == null) return;
+    room.egressQueue = null;
+    synchronized (queue) {
+      queue.removed = true;
+      if (queue.active) active.remove(queue);
+      queue.active = false;
+      queue.clear();
+    }
+  }
+
+  /** @return the size of the queued packets of the room. (in bytes) */
+  public long queuedBytes(ClajRoom room) {
+    RoomQueue queue = room.egressQueue;
+    if (queue == null) return 0;
+    synchronized (queue) { return queue.queuedBytes; }
+  }
+
+  /** @return the number of queued packets of the room. */
+  public int queued(ClajRoom room) {
+    RoomQueue queue = room.egressQueue;
+    if (queue == null) return 0;
+    synchronized (queue) { return queue.udp.size + queue.tcp.size; }
+  }
+
+  /** @return the size of the packets sent for the room. (in bytes) */
+  public long servedBytes(ClajRoom room) {
+    RoomQueue queue = room.egressQueue;
+    if (queue == null) return 0;
+    synchronized (queue) { return queue.served; }
+  }
+
+
+  protected static class RoomQueue {
+    public final ClajRoom room;
+    public final Queue<Item> udp = new Queue<>(), tcp = new Queue<>();
+    public long queuedBytes, served;
+    public int deficit;
+    public boolean active, credited, removed;
+
+    public RoomQueue(ClajRoom room) {
+      this.room = room;
+    }
+
+    public boolean isEmpty() {
+      return udp.isEmpty() && tcp.isEmpty();
+    }
+
+    public void add(Item item) {
+      if (!item.tcp && udp.size >= MAX_UNRELIABLE) {
+        Item old = udp.removeFirst();
+        queuedBytes -= old.raw.data.remaining();
+        old.raw.release();
+      }
+      (item.tcp ? tcp : udp).addLast(item);
+      queuedBytes += item.raw.data.remaining();
+    }
+
+    /** @return the next packet to send, unreliable ones first. */
+    public Item peek() {
+      return !udp.isEmpty() ? udp.first() : !tcp.isEmpty() ? tcp.first() : null;
+    }
+
+    public Item poll() {
+      Item item = !udp.isEmpty() ? udp.removeFirst() : tcp.removeFirst();
+      queuedBytes -= item.raw.data.remaining();
+      return item;
+    }
+
+    public void clear() {
+      while (!udp.isEmpty()) udp.removeFirst().raw.release();
+      while (!tcp.isEmpty()) tcp.removeFirst().raw.release();
+      queuedBytes = 0;
+    }
+  }
+
+
+  protected static class Item {
+    public final ClajConnection con;
+    public final RawPacket raw;
+    public final boolean tcp;
+
+    public Item(ClajConnection con, RawPacket raw, boolean tcp) {
+      this.con = con;
+      this.raw = raw;
+      this.tcp = tcp;
+    }
+  }
+}
@@ -0,0 +1,177 @@
+/**
+ * This file is part of CLaJ. The system that allows you to play with your friends,
+ * just by creating a room, copying the link and sending it to your friends.
+ * Copyright (c) 2025-2026  Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.xpdustry.claj.server;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import arc.func.Cons;
+import arc.struct.IntMap;
+import arc.struct.Queue;
+import arc.util.Log;
+import arc.util.Time;
+
+import com.xpdustry.claj.common.packets.RawPacket;
+import com.xpdustry.claj.server.util.TimingWheel;
+
+
+/**
+ * Keeps packets received from connections that are not yet in a room. <br>
+ * Sometimes the join packet comes after other packets, and can lead to a client-side error/timeout.
+ * <p>
+ * Each connection has a ring of packets within {@link ClajConfig#joinQueueBudget}, and all queues share
+ * {@link ClajConfig#joinQueueTotal}. Packets are copied in {@link RawPacket#retain() pooled buffers},
+ * and a queue is discarded after {@link ClajConfig#joinQueueDeadline} if the connection never joins.
+ * Only used by the main thread.
+ */
+public class JoinQueues {
+  protected final IntMap<JoinQueue> queues = new IntMap<>();
+  protected final ClajRoutines routines;
+  /** Total size of queued packets. (in bytes) */
+  protected long queuedBytes;
+  protected final LongAdder queued = new LongAdder(), flushed = new LongAdder(), dropped = new LongAdder();
+
+  public JoinQueues(ClajRoutines routines) {
+    this.routines = routines;
+  }
+
+  /**
+   * Adds a copy of the packet to the queue of the connection.
+   * @return {@code false} if the packet was dropped, because a budget is exceeded.
+   */
+  public boolean add(ClajConnection con, RawPacket packet) {
+    int size = packet.data.remaining();
+    long total = ClajConfig.joinQueueTotal.get() * 1024L;
+    JoinQueue queue = queues.get(con.id);
+    int queuedSize = queue == null ? 0 : queue.bytes;
+    if (queuedSize + size > budget() || total > 0 && queuedBytes + size > total) {
+      dropped.increment();
+      return false;
+    }
+
+    if (queue == null) {
+      JoinQueue created = queue = new JoinQueue(con);
+      queues.put(con.id, queue);
+      float deadline = ClajConfig.joinQueueDeadline.get();
+      if (deadline > 0) queue.expiry = routines.schedule(() -> expire(created), deadline);
+    }
+    queue.packets.addLast(packet.retain());
+    queue.bytes += size;
+    queuedBytes += size;
+    queued.increment();
+    return true;
+  }
+
+  /** @return the maximum size of the queue of one connection. (in bytes) */
+  public int budget() {
+    return ClajConfig.joinQueueBudget.get() * 1024;
+  }
+
+  /** @return whether a queue was removed or not. */
+  public boolean remove(int conId) {
+    JoinQueue queue = queues.remove(conId);
+    if (queue == null) return false;
+    dropped.add(queue.packets.size);
+    discard(queue);
+    return true;
+  }
+
+  /**
+   * Gives the queued packets of the connection, in order, and removes the queue.
+   * Packets are released after the consumer.
+   * @return whether a queue was flushed or not.
+   */
+  public boolean flush(int conId, Cons<RawPacket> cons) {
+    JoinQueue queue = queues.remove(conId);
+    if (queue == null) return false;
+    flushed.add(queue.packets.size);
+    try {
+      while (!queue.packets.isEmpty()) {
+        RawPacket packet = queue.packets.first();
+        try { cons.get(packet); }
+        finally {
+          queue.packets.removeFirst();
+          packet.release();
+        }
+      }
+    } finally { discard(queue); }
+    return true;
+  }
+
+  protected void expire(JoinQueue queue) {
+    if (queues.get(queue.con.id) != queue) return;
+    remove(queue.con.id);
+    Log.debug("Queued packets of connection @ discarded, no room joined after @ms.", queue.con.sid,
+              Time.timeSinceMillis(queue.createdAt));
+  }
+
+  protected void discard(JoinQueue queue) {
+    if (queue.expiry != null) queue.expiry.cancel();
+    while (!queue.packets.isEmpty()) queue.packets.removeFirst().release();
+    queuedBytes -= queue.bytes;
+    queue.bytes = 0;
+  }
+
+  /** Releases all queued packets. */
+  public void clear() {
+    for (JoinQueue queue : queues.values()) discard(queue);
+    queues.clear();
+    queuedBytes = 0;
+  }
+
+  /** @return the number of connections having queued packets. */
+  public int size() {
+    return queues.size;
+  }
+
+  /** @return the total size of queued packets. (in bytes) */
+  public long queuedBytes() {
+    return queuedBytes;
+  }
+
+  /** @return the number of packets queued since the start. */
+  public long queued() {
+    return queued.sum();
+  }
+
+  /** @return the number of queued packets given to rooms since the start. */
+  public long flushed() {
+    return flushed.sum();
+  }
+
+  /** @return the number of packets dropped since the start, because of a budget or a discarded queue. */
+  public long dropped() {
+    return dropped.sum();
+  }
+
+
+  /** Queued packets of a connection. */
+  protected static class JoinQueue {
+    public final ClajConnection con;
+    public final long createdAt = Time.millis();
+    /** Ring of queued packets. */
+    public final Queue<RawPacket> packets = new Queue<>(4);
+    public int bytes;
+    public TimingWheel.Task expiry;
+
+    public JoinQueue(ClajConnection con) {
+      this.con = con;
+    }
+  }
+}
@@ -22,19 +22,20 @@ package com.xpdustry.claj.server;
 import arc.ApplicationListener;
 import arc.Core;
 import arc.Events;
-import arc.backend.headless.HeadlessApplication;
 import arc.mock.MockSettings;
 import arc.util.Log;
 
 import com.xpdustry.claj.common.ClajPackets;
+import com.xpdustry.claj.common.packets.RawPacket;
 import com.xpdustry.claj.common.status.ClajVersion;
 import com.xpdustry.claj.server.plugin.Plugins;
 import com.xpdustry.claj.server.util.Autosaver;
+import com.xpdustry.claj.server.util.ClajApplication;
 
 
 public class Main implements ApplicationListener {
   public static String[] args;
-  public static HeadlessApplication app;
+  public static ClajApplication app;
   public static boolean isLoading;
 
   public static void main(String[] args) {
@@ -44,7 +45,7 @@ public class Main implements ApplicationListener {
     ClajVars.initLogger();
     if (!loadEnv(args)) System.exit(1);
 
-    app = new HeadlessApplication(new Main(), t -> {
+    app = new ClajApplication(new Main(), t -> {
       //TODO: crash handler
       Throwable disposeError = null, saveError = null;
       // Try to dispose properly
@@ -83,6 +84,7 @@ public class Main implements ApplicationListener {
 
     ClajConfig.load();
     Log.level = ClajConfig.debug.get() ? Log.LogLevel.debug : Log.LogLevel.info; // set log level
+    RawPacket.leaks.enabled = ClajConfig.debug.get();
     ClajPackets.init();
     Autosaver.init(app);
 
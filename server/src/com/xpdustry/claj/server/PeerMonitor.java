@@ -0,0 +1,180 @@
+/**
+ * This file is part of CLaJ. The system that allows you to play with your friends,
+ * just by creating a room, copying the link and sending it to your friends.
+ * Copyright (c) 2025-2026  Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.xpdustry.claj.server;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+import arc.struct.Seq;
+import arc.util.Log;
+import arc.util.Threads;
+import arc.util.Time;
+import arc.util.io.ByteBufferInput;
+
+import com.xpdustry.claj.common.ClajNet;
+import com.xpdustry.claj.common.packets.ServerInfoPacket;
+import com.xpdustry.claj.common.util.Strings;
+
+
+/**
+ * Keeps the load figures of the {@link ClajConfig#peers peer relays}, refreshed in background
+ * by pinging them like a client does. <br>
+ * Used to redirect room creations when this server is full. Peers in cluster mode are also registered
+ * in the {@link ClusterDirectory}.
+ */
+public class PeerMonitor implements Runnable {
+  /** Time to wait for the answer of a peer. (in ms) */
+  public static final int TIMEOUT = 2000;
+
+  protected final ClusterDirectory directory;
+  protected volatile Peer[] peers = {};
+  protected String lastPeers;
+  protected volatile boolean running;
+  protected Thread thread;
+
+  /** @param directory where to register peers in cluster mode, can be {@code null}. */
+  public PeerMonitor(ClusterDirectory directory) {
+    this.directory = directory;
+  }
+
+  public void start() {
+    if (running) return;
+    running = true;
+    thread = Threads.daemon("CLaJ Peer Monitor", this);
+  }
+
+  public void stop() {
+    if (!running) return;
+    running = false;
+    thread.interrupt();
+  }
+
+  @Override
+  public void run() {
+    while (running) {
+      refresh();
+      try { Thread.sleep(Math.max(1, ClajConfig.peerRefresh.get()) * 1000L); }
+      catch (InterruptedException _) { break; }
+    }
+  }
+
+  /** Reloads the list of peers if changed, then pings all of them. */
+  public void refresh() {
+    String config = ClajConfig.peers.get();
+    if (!config.equals(lastPeers)) {
+      lastPeers = config;
+      peers = parse(config);
+    }
+    for (Peer peer : peers) {
+      if (!running) return;
+      if (!peer.ping() || directory == null) continue;
+      if (peer.info.node > 0) directory.put(peer.info.node, peer.host, peer.port);
+    }
+  }
+
+  /** @return the least loaded peer, that is not full. {@code null} if none. */
+  public Peer best() {
+    long maxAge = Math.max(1, ClajConfig.peerRefresh.get()) * 3_000L;
+    Peer best = null;
+    for (Peer peer : peers) {
+      ServerInfoPacket info = peer.info;
+      if (info == null || Time.timeSinceMillis(peer.updated) > maxAge || info.load() >= 1f) continue;
+      if (best == null || info.load() < best.info.load()) best = peer;
+    }
+    return best;
+  }
+
+  public Peer[] peers() {
+    return peers;
+  }
+
+  /** Parses a list of {@code host:port}, separated by commas. */
+  protected static Peer[] parse(String list) {
+    Seq<Peer> peers = new Seq<>(Peer.class);
+    for (String entry : list.split(",")) {
+      entry = entry.trim();
+      if (entry.isEmpty()) continue;
+      int sep = entry.lastIndexOf(':');
+      int port = sep == -1 ? -1 : Strings.parseInt(entry.substring(sep+1), -1);
+      if (port <= 0 || port > 0xffff) {
+        Log.warn("Invalid peer relay address: @. (format: host:port)", entry);
+        continue;
+      }
+      peers.add(new Peer(entry.substring(0, sep), port));
+    }
+    return peers.toArray();
+  }
+
+
+  public static class Peer {
+    public final String host;
+    public final int port;
+    /** Last load figures. {@code null} if never reached. */
+    public volatile ServerInfoPacket info;
+    /** Time of the last answer. (in ms) */
+    public volatile long updated;
+    public volatile int ping;
+
+    public Peer(String host, int port) {
+      this.host = host;
+      this.port = port;
+    }
+
+    /**
+     * Sends a discovery request and waits for the answer. Blocking.
+     * @return whether the peer answered.
+     */
+    public boolean ping() {
+      try (DatagramSocket socket = new DatagramSocket()) {
+        socket.setSoTimeout(TIMEOUT);
+        socket.connect(new InetSocketAddress(host, port));
+        long start = Time.millis();
+        // Framework message 1 is a host discovery
+        byte[] request = {ClajNet.frameworkId, 1};
+        socket.send(new DatagramPacket(request, request.length));
+
+        byte[] answer = new byte[64];
+        DatagramPacket packet = new DatagramPacket(answer, answer.length);
+        socket.receive(packet);
+        ByteBuffer buffer = ByteBuffer.wrap(answer, 0, packet.getLength());
+        if (!buffer.hasRemaining() || buffer.get() != ClajNet.id) return false;
+        ServerInfoPacket info = new ServerInfoPacket().r(new ByteBufferInput(buffer));
+        info.handled();
+        ping = (int)Time.timeSinceMillis(start);
+        this.info = info;
+        updated = Time.millis();
+        return true;
+      } catch (IOException e) {
+        Log.debug("Unable to reach the peer relay @:@: @", host, port, e.toString());
+      } catch (RuntimeException e) {
+        Log.debug("Invalid answer of the peer relay @:@: @", host, port, e.toString());
+      }
+      return false;
+    }
+
+    @Override
+    public String toString() {
+      return host + ":" + port;
+    }
+  }
+}
@@ -0,0 +1,199 @@
+/**
+ * This file is part of CLaJ. The system that allows you to play with your friends,
+ * just by creating a room, copying the link and sending it to your friends.
+ * Copyright (c) 2026  Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.xpdustry.claj.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import arc.net.Connection;
+import arc.util.Log;
+import arc.util.Threads;
+
+import com.xpdustry.claj.common.packets.*;
+
+
+/**
+ * A forwarding thread owning the data plane of a subset of rooms. <br>
+ * Rooms are pinned to the shard of their host, so all the traffic of a room is forwarded by the same thread,
+ * in the order it was received.
+ * <p>
+ * The network thread hands packets off through a single-producer ring, so only it can call
+ * {@link #submit(ClajRoom, Connection, Packet)}. Packets are detached from the network buffers before that.
+ * <p>
+ * Packets of the same rooms handled by another thread must wait for the packets already in the ring,
+ * with a {@link #fence()} taken by the network thread and {@link #await(long) awaited} by the other thread.
+ */
+public class RelayShard implements Runnable {
+  public final int index;
+  protected final int mask;
+  protected final ClajRoom[] rooms;
+  protected final Connection[] sources;
+  protected final Packet[] packets;
+  /** {@link #head} is only written by the shard thread, {@link #tail} only by the network thread. */
+  protected final AtomicLong head = new AtomicLong(), tail = new AtomicLong();
+  protected final AtomicLong forwarded = new AtomicLong();
+  /** Called when the ring is drained, before sleeping. Can be {@code null}. */
+  protected final Runnable drained;
+  protected volatile boolean running, sleeping;
+  protected Thread thread;
+
+  public RelayShard(int index, int capacity) { this(index, capacity, null); }
+  /**
+   * @param capacity the ring capacity, will be rounded to the next power of two.
+   * @param drained called when the ring is drained, before sleeping. Can be {@code null}.
+   */
+  public RelayShard(int index, int capacity, Runnable drained) {
+    this.index = index;
+    this.drained = drained;
+    int size = Integer.highestOneBit(Math.max(2, capacity - 1) << 1);
+    mask = size - 1;
+    rooms = new ClajRoom[size];
+    sources = new Connection[size];
+    packets = new Packet[size];
+  }
+
+  public void start() {
+    if (running) return;
+    running = true;
+    thread = Threads.daemon("CLaJ Relay Shard " + (index+1), this);
+  }
+
+  /** Stops the thread and frees remaining packets. */
+  public void stop() {
+    if (!running) return;
+    running = false;
+    LockSupport.unpark(thread);
+    try { thread.join(1000); }
+    catch (InterruptedException _) { Thread.currentThread().interrupt(); }
+    while (poll(false)) {}
+  }
+
+  public boolean isRunning() {
+    return running;
+  }
+
+  /** @return whether the current thread is the one of this shard. */
+  public boolean isShardThread() {
+    return Thread.currentThread() == thread;
+  }
+
+  public boolean isEmpty() {
+    return head.get() >= tail.get();
+  }
+
+  /** @return whether the ring is full. Only meaningful for the network thread. */
+  public boolean isFull() {
+    return tail.get() - head.get() > mask;
+  }
+
+  /**
+   * Must only be called by the network thread.
+   * @return the position after the packets submitted so far, to {@link #await(long) wait} for them.
+   */
+  public long fence() {
+    return tail.get();
+  }
+
+  /**
+   * Waits until the packets submitted before the fence are forwarded, or until the shard is stopped. <br>
+   * Must not be called by the network thread or the shard thread.
+   */
+  public void await(long fence) {
+    while (head.get() < fence && running) {
+      wake();
+      LockSupport.parkNanos(20_000);
+    }
+  }
+
+  /** @return the number of packets waiting to be forwarded. */
+  public int pending() {
+    return (int)Math.max(0, tail.get() - head.get());
+  }
+
+  /** @return the number of packets forwarded by this shard. */
+  public long forwarded() {
+    return forwarded.get();
+  }
+
+  /**
+   * Queues a packet to be forwarded by this shard. Must only be called by the network thread. <br>
+   * The network thread never waits for the shard, so nothing is queued if the ring is full.
+   * @return whether the packet was queued, else it must be handled by the caller.
+   */
+  public boolean submit(ClajRoom room, Connection source, Packet packet) {
+    long t = tail.get();
+    if (!running || t - head.get() > mask) {
+      wake();
+      return false;
+    }
+    int i = (int)(t & mask);
+    rooms[i] = room;
+    sources[i] = source;
+    packets[i] = packet;
+    tail.set(t + 1);
+    return true;
+  }
+
+  /** Wakes up the shard thread if there is work to do. Called after each network update. */
+  public void wake() {
+    if (sleeping && !isEmpty()) LockSupport.unpark(thread);
+  }
+
+  @Override
+  public void run() {
+    while (running) {
+      if (poll(true)) continue;
+      if (drained != null) {
+        try { drained.run(); }
+        catch (Throwable e) { Log.err("Error in relay shard " + (index+1), e); }
+      }
+      sleeping = true;
+      if (running && isEmpty()) LockSupport.park(this);
+      sleeping = false;
+    }
+  }
+
+  /** @return whether a packet was polled. */
+  protected boolean poll(boolean forward) {
+    long h = head.get();
+    if (h >= tail.get()) return false;
+    int i = (int)(h & mask);
+    ClajRoom room = rooms[i];
+    Connection source = sources[i];
+    Packet packet = packets[i];
+    rooms[i] = null;
+    sources[i] = null;
+    packets[i] = null;
+
+    try {
+      if (forward) {
+        room.received(source, (Object)packet);
+        forwarded.incrementAndGet();
+      }
+    } catch (Throwable e) {
+      Log.err("Error while forwarding a packet of room " + room.sid, e);
+    } finally {
+      ClajRelay.free(packet);
+      // Only now, so a fence is passed after the packet was forwarded
+      head.set(h + 1);
+    }
+    return true;
+  }
+}
@@ -0,0 +1,223 @@
+/**
+ * This file is part of CLaJ. The system that allows you to play with your friends,
+ * just by creating a room, copying the link and sending it to your friends.
+ * Copyright (c) 2025-2026  Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.xpdustry.claj.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import arc.files.Fi;
+import arc.struct.LongMap;
+import arc.util.Time;
+
+import com.xpdustry.claj.common.status.ClajType;
+
+
+/**
+ * Snapshot of the room registry, written when the relay stops and loaded when it starts. <br>
+ * Hosts can reclaim their previous room id with its {@link ClajRoom#resumeToken resume token},
+ * until {@link ClajConfig#reclaimWindow} after the snapshot, so links stay valid across restarts.
+ * Only rooms with a resume token are saved, as others cannot be reclaimed.
+ * <p>
+ * The file uses a compact binary format, and is read through a memory-mapped buffer.
+ * Only used by the main thread.
+ */
+public class RoomSnapshot {
+  public static final int MAGIC = 0x434c_4a53, VERSION = 1;
+  protected static final int FLAG_PUBLIC = 1, FLAG_PROTECTED = 2, FLAG_REQUEST_STATE = 4, FLAG_TYPE = 8;
+
+  public final Fi file;
+  protected final LongMap<Entry> entries = new LongMap<>();
+  /** Time of the loaded snapshot. (in ms) */
+  protected long savedAt;
+
+  public RoomSnapshot(Fi file) {
+    this.file = file;
+  }
+
+  /**
+   * Writes the rooms having a resume token, replacing the previous snapshot.
+   * @return the number of saved rooms.
+   */
+  public int save(Iterable<ClajRoom> rooms) throws IOException {
+    Path path = file.file().toPath(), temp = path.resolveSibling(path.getFileName() + ".tmp");
+    ByteBuffer buffer = ByteBuffer.allocate(1 << 17);
+    int count = 0;
+
+    try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                StandardOpenOption.TRUNCATE_EXISTING)) {
+      // Header, the count is written at the end
+      buffer.putInt(MAGIC).put((byte)VERSION).putLong(Time.millis()).putInt(0);
+      for (ClajRoom room : rooms) {
+        if (room.isClosed() || room.resumeToken == 0) continue;
+        int size = sizeOf(room);
+        if (buffer.remaining() < size) {
+          write(channel, buffer);
+          if (buffer.capacity() < size) buffer = ByteBuffer.allocate(size);
+        }
+        write(room, buffer);
+        count++;
+      }
+      write(channel, buffer);
+      buffer.putInt(count).flip();
+      channel.write(buffer, Integer.BYTES + 1 + Long.BYTES);
+    }
+    Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    return count;
+  }
+
+  /**
+   * Loads the rooms of the snapshot, if not older than {@link ClajConfig#reclaimWindow}.
+   * @return the number of rooms that can be reclaimed.
+   */
+  public int load() throws IOException {
+    entries.clear();
+    if (!file.exists()) return 0;
+
+    try (FileChannel channel = FileChannel.open(file.file().toPath(), StandardOpenOption.READ)) {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (buffer.remaining() < Integer.BYTES * 2 + 1 + Long.BYTES || buffer.getInt() != MAGIC)
+        throw new IOException("Invalid room snapshot");
+      int version = buffer.get();
+      if (version != VERSION) throw new IOException("Unsupported room snapshot version: " + version);
+      savedAt = buffer.getLong();
+      int count = buffer.getInt();
+      if (isExpired()) return 0;
+
+      for (int i=0; i<count; i++) {
+        Entry entry = read(buffer);
+        entries.put(entry.id, entry);
+      }
+    }
+    return entries.size;
+  }
+
+  /**
+   * Removes the saved room if the token matches and the window has not expired.
+   * @return the saved room, or {@code null}.
+   */
+  public Entry take(long roomId, long token) {
+    if (entries.isEmpty()) return null;
+    if (isExpired()) {
+      entries.clear();
+      return null;
+    }
+    Entry entry = entries.get(roomId);
+    if (entry == null || token == 0 || entry.token != token) return null;
+    return entries.remove(roomId);
+  }
+
+  /** @return whether the window to reclaim rooms has expired. */
+  public boolean isExpired() {
+    return Time.timeSinceMillis(savedAt) > ClajConfig.reclaimWindow.get() * 1000L;
+  }
+
+  /** @return the number of rooms that can still be reclaimed. */
+  public int size() {
+    return isExpired() ? 0 : entries.size;
+  }
+
+  public void clear() {
+    entries.clear();
+  }
+
+  protected static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) channel.write(buffer);
+    buffer.clear();
+  }
+
+  protected static int sizeOf(ClajRoom room) {
+    ByteBuffer state = room.rawState;
+    return Long.BYTES * 2 + Integer.BYTES * 3 + 1 + ClajType.SIZE + 1 + Short.BYTES +
+           (state == null ? 0 : state.remaining()) + Short.BYTES + room.clients.size * Integer.BYTES;
+  }
+
+  protected static void write(ClajRoom room, ByteBuffer out) {
+    out.putLong(room.id);
+    out.putLong(room.resumeToken);
+    out.putInt(room.features);
+    out.put((byte)((room.isPublic ? FLAG_PUBLIC : 0) | (room.isProtected ? FLAG_PROTECTED : 0) |
+                   (room.canRequestState ? FLAG_REQUEST_STATE : 0) | (room.type != null ? FLAG_TYPE : 0)));
+    if (room.type != null) room.type.write(out);
+    out.putShort(room.password);
+    out.putInt(room.maxClients);
+
+    ByteBuffer state = room.rawState;
+    if (state == null) out.putInt(-1);
+    else out.putInt(state.remaining()).put(state.duplicate());
+
+    int clients = Math.min(room.clients.size, 0xffff);
+    out.putShort((short)clients);
+    for (ClajConnection con : room.clients.values()) {
+      if (clients-- <= 0) break;
+      out.putInt(con.id);
+    }
+  }
+
+  protected static Entry read(ByteBuffer in) {
+    Entry entry = new Entry();
+    entry.id = in.getLong();
+    entry.token = in.getLong();
+    entry.features = in.getInt();
+    int flags = in.get();
+    entry.isPublic = (flags & FLAG_PUBLIC) != 0;
+    entry.isProtected = (flags & FLAG_PROTECTED) != 0;
+    entry.canRequestState = (flags & FLAG_REQUEST_STATE) != 0;
+    entry.type = (flags & FLAG_TYPE) != 0 ? ClajType.read(in) : null;
+    entry.password = in.getShort();
+    entry.maxClients = in.getInt();
+
+    int stateSize = in.getInt();
+    if (stateSize >= 0) {
+      // Copied, so the mapping is not kept
+      ByteBuffer state = ByteBuffer.allocate(stateSize);
+      ByteBuffer view = in.duplicate();
+      view.limit(view.position() + stateSize);
+      state.put(view).flip();
+      in.position(in.position() + stateSize);
+      entry.state = state;
+    }
+
+    entry.clients = new int[in.getShort() & 0xffff];
+    for (int i=0; i<entry.clients.length; i++) entry.clients[i] = in.getInt();
+    return entry;
+  }
+
+
+  /** A saved room. */
+  public static class Entry {
+    public long id, token;
+    public int features;
+    public ClajType type;
+    public boolean isPublic, isProtected, canRequestState;
+    public short password;
+    public int maxClients;
+    /** Raw state, {@code null} if none. */
+    public ByteBuffer state;
+    /** Clients that were in the room, to notify the host that they left. */
+    public int[] clients;
+  }
+}
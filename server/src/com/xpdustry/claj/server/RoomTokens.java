@@ -0,0 +1,94 @@
+/**
+ * This file is part of CLaJ. The system that allows you to play with your friends,
+ * just by creating a room, copying the link and sending it to your friends.
+ * Copyright (c) 2025-2026  Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.xpdustry.claj.server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+
+/**
+ * Issues and verifies tokens allowing to re-create a room under the same id, on another relay. <br>
+ * A token holds its expiry time (in seconds) in its highest 32 bits,
+ * and a truncated HMAC of the room id and of the expiry time in the lowest ones.
+ * So a relay can verify a token issued by another relay, without asking it.
+ * <p>
+ * Relays must share the same {@link ClajConfig#clusterSecret secret} to accept tokens of each others.
+ * Without secret, a random one is used, and only relays of the same process can verify the tokens.
+ * <p>
+ * Thread-safe.
+ */
+public class RoomTokens {
+  protected static final String ALGORITHM = "HmacSHA256";
+  /** Used when no secret is configured. */
+  protected static final byte[] processSecret = new byte[32];
+  protected static final SecureRandom random = new SecureRandom();
+  static { random.nextBytes(processSecret); }
+
+  protected final ByteBuffer input = ByteBuffer.allocate(Long.BYTES * 2);
+  protected Mac mac;
+  protected String secret;
+
+  /** @return a token for the room, valid for the specified time. (in ms) */
+  public synchronized long issue(long roomId, long lifetime) {
+    long expiry = (System.currentTimeMillis() + lifetime) / 1000 & 0xffff_ffffL;
+    return expiry << 32 | sign(roomId, expiry);
+  }
+
+  /** @return a random token, not {@code 0}, for tokens only checked by the relay issuing them. */
+  public long random() {
+    long token;
+    do token = random.nextLong(); while (token == 0);
+    return token;
+  }
+
+  /** @return whether the token was issued for this room, and is not expired. */
+  public synchronized boolean verify(long roomId, long token) {
+    long expiry = token >>> 32;
+    if (expiry < System.currentTimeMillis() / 1000) return false;
+    return (int)token == sign(roomId, expiry);
+  }
+
+  protected int sign(long roomId, long expiry) {
+    input.clear();
+    input.putLong(roomId).putLong(expiry);
+    byte[] hash = mac().doFinal(input.array());
+    return ByteBuffer.wrap(hash).getInt();
+  }
+
+  /** @return the mac initialized with the current secret. */
+  protected Mac mac() {
+    String current = ClajConfig.clusterSecret.get();
+    if (mac != null && current.equals(secret)) return mac;
+    byte[] key = current.isEmpty() ? processSecret : current.getBytes(StandardCharsets.UTF_8);
+    try {
+      mac = Mac.getInstance(ALGORITHM);
+      mac.init(new SecretKeySpec(key, ALGORITHM));
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("Unable to initialize " + ALGORITHM, e);
+    }
+    secret = current;
+    return mac;
+  }
+}
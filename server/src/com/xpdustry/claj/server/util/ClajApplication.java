@@ -0,0 +1,188 @@
+/**
+ * This file is part of CLaJ. The system that allows you to play with your friends,
+ * just by creating a room, copying the link and sending it to your friends.
+ * Copyright (c) 2026  Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.xpdustry.claj.server.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import arc.Application;
+import arc.ApplicationListener;
+import arc.Core;
+import arc.func.Cons;
+import arc.mock.MockFiles;
+import arc.mock.MockGraphics;
+import arc.struct.Seq;
+
+
+/**
+ * Headless application that sleeps until a task is posted, instead of updating at a fixed rate. <br>
+ * Posted tasks are run as soon as possible, then listeners are updated. Listeners are also updated at least
+ * every {@link #idleInterval}, or earlier if requested with {@link #requestUpdate(long)}.
+ */
+public class ClajApplication implements Application {
+  protected final Seq<ApplicationListener> listeners = new Seq<>();
+  protected final Cons<Throwable> exceptionHandler;
+  protected final ReentrantLock lock = new ReentrantLock();
+  protected final Condition wakeup = lock.newCondition();
+  protected final Thread mainThread;
+  /** Posted tasks, swapped with {@link #executed} at each loop. Guarded by {@link #lock}. */
+  protected Seq<Runnable> posted = new Seq<>(false, 64), executed = new Seq<>(false, 64);
+  /** Time of the next requested update. (in ns) Guarded by {@link #lock}. */
+  protected long nextUpdate;
+  protected boolean hasNextUpdate, waiting;
+  protected volatile boolean running = true;
+  /** Maximum time between two listeners updates, when nothing is posted. (in ns) */
+  public volatile long idleInterval = TimeUnit.SECONDS.toNanos(1);
+  protected int updates, updatesPerSecond;
+  protected long updatesCountStart;
+
+  public ClajApplication(ApplicationListener listener) { this(listener, null); }
+  public ClajApplication(ApplicationListener listener, Cons<Throwable> exceptionHandler) {
+    this.exceptionHandler = exceptionHandler;
+    Core.app = this;
+    Core.files = new MockFiles();
+    Core.graphics = new MockGraphics();
+    addListener(listener);
+    mainThread = new Thread(this::loop, "Main");
+    mainThread.start();
+  }
+
+  protected void loop() {
+    try {
+      listen(ApplicationListener::init);
+      updatesCountStart = System.nanoTime();
+      while (running) {
+        await();
+        for (int i=0; i<executed.size; i++) executed.items[i].run();
+        executed.clear();
+        listen(ApplicationListener::update);
+        countUpdate();
+      }
+      listen(l -> {
+        l.pause();
+        l.dispose();
+      });
+      dispose();
+    } catch (Throwable t) {
+      if (exceptionHandler != null) exceptionHandler.get(t);
+      else if (t instanceof RuntimeException e) throw e;
+      else throw new RuntimeException(t);
+    }
+  }
+
+  /** Waits for a posted task, a requested update or the idle interval, then swaps the task lists. */
+  protected void await() {
+    lock.lock();
+    try {
+      long deadline = System.nanoTime() + idleInterval;
+      if (hasNextUpdate && nextUpdate - deadline < 0) deadline = nextUpdate;
+      long remaining;
+      while (running && posted.isEmpty() && (remaining = deadline - System.nanoTime()) > 0) {
+        waiting = true;
+        wakeup.awaitNanos(remaining);
+      }
+      waiting = false;
+      if (hasNextUpdate && nextUpdate - System.nanoTime() <= 0) hasNextUpdate = false;
+
+      Seq<Runnable> tmp = executed;
+      executed = posted;
+      posted = tmp;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally { lock.unlock(); }
+  }
+
+  protected void listen(Cons<ApplicationListener> cons) {
+    synchronized (listeners) {
+      // Listeners added while iterating will also be called
+      for (int i=0; i<listeners.size; i++) cons.get(listeners.get(i));
+    }
+  }
+
+  protected void countUpdate() {
+    updates++;
+    long now = System.nanoTime();
+    if (now - updatesCountStart >= 1_000_000_000L) {
+      updatesPerSecond = updates;
+      updates = 0;
+      updatesCountStart = now;
+    }
+  }
+
+  /** Requests a listeners update in the specified time, if earlier than the next one. (in ns) */
+  public void requestUpdate(long delay) {
+    lock.lock();
+    try {
+      long time = System.nanoTime() + Math.max(0, delay);
+      if (hasNextUpdate && nextUpdate - time <= 0) return;
+      nextUpdate = time;
+      hasNextUpdate = true;
+      if (waiting) wakeup.signal();
+    } finally { lock.unlock(); }
+  }
+
+  /** @return the number of listeners updates during the last second. */
+  public int updatesPerSecond() {
+    return updatesPerSecond;
+  }
+
+  /** @return whether the current thread is the main thread. */
+  public boolean isMainThread() {
+    return Thread.currentThread() == mainThread;
+  }
+
+  @Override
+  public Seq<ApplicationListener> getListeners() {
+    return listeners;
+  }
+
+  @Override
+  public ApplicationType getType() {
+    return ApplicationType.headless;
+  }
+
+  @Override
+  public String getClipboardText() {
+    return null;
+  }
+
+  @Override
+  public void setClipboardText(String text) {}
+
+  /** Posts the task and wakes up the main thread. */
+  @Override
+  public void post(Runnable runnable) {
+    lock.lock();
+    try {
+      posted.add(runnable);
+      if (waiting) wakeup.signal();
+    } finally { lock.unlock(); }
+  }
+
+  @Override
+  public void exit() {
+    lock.lock();
+    try {
+      running = false;
+      if (waiting) wakeup.signal();
+    } finally { lock.unlock(); }
+  }
+}
@@ -0,0 +1,213 @@
+/**
+ * This file is part of CLaJ. The system that allows you to play with your friends,
+ * just by creating a room, copying the link and sending it to your friends.
+ * Copyright (c) 2026  Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.xpdustry.claj.server.util;
+
+import arc.struct.Seq;
+import arc.util.Log;
+import arc.util.Time;
+
+
+/**
+ * Hashed timing wheel, with O(1) schedule and cancel. <br>
+ * Tasks are run by {@link #advance(long)}, with a precision of one tick.
+ * <p>
+ * Not thread-safe: tasks must be scheduled, cancelled and run by the same thread. (the main thread)
+ */
+public class TimingWheel {
+  public final long tickNanos;
+  protected final Task[] buckets;
+  protected final int mask;
+  protected final long start;
+  protected final Seq<Task> expired = new Seq<>(false, 16, Task.class);
+  /** Last processed tick. */
+  protected long tick;
+  protected int size;
+  /** Earliest deadline of scheduled tasks, or {@code -1} if it must be computed again. */
+  protected long earliest = -1;
+
+  /**
+   * @param tickMillis duration of a tick.
+   * @param wheelSize number of buckets, will be rounded to the next power of two.
+   */
+  public TimingWheel(long tickMillis, int wheelSize) {
+    if (tickMillis <= 0) throw new IllegalArgumentException("tickMillis must be positive");
+    tickNanos = tickMillis * 1_000_000L;
+    int length = Integer.highestOneBit(Math.max(2, wheelSize - 1) << 1);
+    buckets = new Task[length];
+    mask = length - 1;
+    start = Time.nanos();
+  }
+
+  /** Schedules a new task. (delay in seconds) */
+  public Task schedule(Runnable run, float delay) {
+    Task task = new Task(run);
+    schedule(task, (long)(delay * 1_000_000_000d));
+    return task;
+  }
+
+  /** Schedules, or re-schedules, the task. (delay in ns) */
+  public void schedule(Task task, long delayNanos) {
+    cancel(task);
+    long now = Time.nanos() - start;
+    // Round up, to never run a task too early
+    long deadline = Math.max(tick + 1, (now + Math.max(0, delayNanos) + tickNanos - 1) / tickNanos);
+    task.wheel = this;
+    task.deadline = deadline;
+    task.expiring = false;
+    int index = (int)(deadline & mask);
+    task.bucket = index;
+    task.prev = null;
+    task.next = buckets[index];
+    if (task.next != null) task.next.prev = task;
+    buckets[index] = task;
+    size++;
+    if (earliest != -1 && deadline < earliest) earliest = deadline;
+  }
+
+  /** @return whether the task was scheduled. */
+  public boolean cancel(Task task) {
+    if (task.wheel != this) return false;
+    boolean wasExpiring = task.expiring;
+    task.expiring = false;
+    if (task.bucket == -1) return wasExpiring;
+
+    if (task.prev != null) task.prev.next = task.next;
+    else buckets[task.bucket] = task.next;
+    if (task.next != null) task.next.prev = task.prev;
+    task.prev = task.next = null;
+    task.bucket = -1;
+    size--;
+    if (task.deadline == earliest) earliest = -1;
+    return true;
+  }
+
+  /**
+   * Runs the expired tasks. Tasks can be scheduled or cancelled while running.
+   * @return the number of tasks run.
+   */
+  public int advance(long nowNanos) {
+    long target = (nowNanos - start) / tickNanos;
+    if (target <= tick) return 0;
+
+    if (target - tick >= buckets.length) {
+      // Late of more than a round, check the whole wheel
+      for (int i=0; i<buckets.length; i++) collect(i, target);
+    } else {
+      for (long t=tick+1; t<=target; t++) collect((int)(t & mask), t);
+    }
+    tick = target;
+
+    int ran = 0;
+    Task[] items = expired.items;
+    for (int i=0; i<expired.size; i++) {
+      Task task = items[i];
+      items[i] = null;
+      // Cancelled or re-scheduled by a previous task
+      if (!task.expiring) continue;
+      task.expiring = false;
+      try { task.run.run(); }
+      catch (Throwable e) { Log.err("Error while running a scheduled task", e); }
+      ran++;
+    }
+    expired.size = 0;
+    return ran;
+  }
+
+  /** Unlinks expired tasks of the bucket. */
+  protected void collect(int index, long limit) {
+    Task task = buckets[index];
+    while (task != null) {
+      Task next = task.next;
+      if (task.deadline <= limit) {
+        cancel(task);
+        task.expiring = true;
+        expired.add(task);
+      }
+      task = next;
+    }
+  }
+
+  /** @return the number of scheduled tasks. */
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /** @return the time until the next tick. (in ns) */
+  public long nextTickDelay() {
+    return start + (tick + 1) * tickNanos - Time.nanos();
+  }
+
+  /** @return the time until the earliest task expires, or {@code -1} if there are no tasks. (in ns) */
+  public long nextDeadlineDelay() {
+    long deadline = nextDeadline();
+    return deadline == -1 ? -1 : Math.max(0, start + deadline * tickNanos - Time.nanos());
+  }
+
+  /** @return the tick of the earliest task, or {@code -1} if there are no tasks. */
+  public long nextDeadline() {
+    if (size == 0) return -1;
+    if (earliest != -1) return earliest;
+    // Tasks of the nearest buckets are likely the earliest, but can be for a later round
+    long min = Long.MAX_VALUE;
+    for (long t=tick+1; t<=tick+buckets.length; t++) {
+      for (Task task = buckets[(int)(t & mask)]; task != null; task = task.next) {
+        if (task.deadline < min) min = task.deadline;
+      }
+      if (min <= t) break;
+    }
+    return earliest = min;
+  }
+
+  /** Cancels all tasks. */
+  public void clear() {
+    for (int i=0; i<buckets.length; i++) {
+      while (buckets[i] != null) cancel(buckets[i]);
+    }
+    earliest = -1;
+  }
+
+
+  public static class Task {
+    protected final Runnable run;
+    protected TimingWheel wheel;
+    protected Task prev, next;
+    protected long deadline;
+    protected int bucket = -1;
+    protected boolean expiring;
+
+    public Task(Runnable run) {
+      if (run == null) throw new NullPointerException("run");
+      this.run = run;
+    }
+
+    public boolean isScheduled() {
+      return bucket != -1 || expiring;
+    }
+
+    /** @return whether the task was scheduled. */
+    public boolean cancel() {
+      return wheel != null && wheel.cancel(this);
+    }
+  }
+}
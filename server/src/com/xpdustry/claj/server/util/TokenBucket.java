@@ -0,0 +1,70 @@
+/**
+ * This file is part of CLaJ. The system that allows you to play with your friends,
+ * just by creating a room, copying the link and sending it to your friends.
+ * Copyright (c) 2025-2026  Xpdustry
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.xpdustry.claj.server.util;
+
+import arc.util.Time;
+
+
+/**
+ * Token bucket of bytes, that can go in debt. <br>
+ * The rate and the burst are given at each call, so they can be changed at runtime.
+ * <p>
+ * Not thread-safe: must only be used by one thread. (the network thread)
+ */
+public class TokenBucket {
+  /** Available bytes, negative when in debt. */
+  protected long tokens;
+  protected long lastRefill;
+  protected boolean filled;
+
+  /**
+   * Adds the bytes accumulated since the last refill.
+   * @param rate sustained rate. (in bytes per second)
+   * @param burst maximum of available bytes. (in bytes)
+   */
+  public void refill(long rate, long burst) {
+    long now = Time.nanos();
+    if (!filled) {
+      // Starts full
+      tokens = burst;
+      filled = true;
+    } else {
+      long elapsed = Math.min(now - lastRefill, 10_000_000_000L);
+      tokens = Math.min(burst, tokens + elapsed * rate / 1_000_000_000L);
+    }
+    lastRefill = now;
+  }
+
+  /** @return the time until the debt is paid, if the bytes are taken now. (in ns) {@code 0} if no debt. */
+  public long delay(long rate, int bytes) {
+    long debt = bytes - tokens;
+    if (debt <= 0) return 0;
+    return rate <= 0 ? Long.MAX_VALUE : debt * 1_000_000_000L / rate;
+  }
+
+  public void take(int bytes) {
+    tokens -= bytes;
+  }
+
+  /** @return the available bytes, negative when in debt. */
+  public long tokens() {
+    return tokens;
+  }
+}